@@ -62,8 +62,24 @@ public class KinesisConnectorConfiguration {
     public static final String PROP_CLEANUP_TERMINATED_SHARDS_BEFORE_EXPIRY = "cleanupTerminatedShardsBeforeExpiry";
     public static final String PROP_REGION_NAME = "regionName";
     public static final String PROP_BATCH_RECORDS_IN_PUT_REQUEST = "batchRecordsInPutRequest";
+    public static final String PROP_ASYNC_EMIT = "asyncEmit";
+    public static final String PROP_ASYNC_EMIT_MAX_PENDING_BATCHES = "asyncEmitMaxPendingBatches";
     public static final String PROP_S3_ENDPOINT = "s3Endpoint";
     public static final String PROP_S3_BUCKET = "s3Bucket";
+    public static final String PROP_S3_PATH_STYLE_ACCESS = "s3PathStyleAccess";
+    public static final String PROP_S3_MULTIPART_PART_SIZE = "s3MultipartPartSize";
+    public static final String PROP_S3_MULTIPART_CONCURRENCY = "s3MultipartConcurrency";
+    public static final String PROP_S3_GZIP_COMPRESSION_LEVEL = "s3GzipCompressionLevel";
+    public static final String PROP_S3_GZIP_BLOCK_SIZE = "s3GzipBlockSize";
+    public static final String PROP_S3_GZIP_THREADS = "s3GzipThreads";
+    public static final String PROP_S3_COMPRESSION_CODEC = "s3CompressionCodec";
+    public static final String PROP_S3_PARTITION_UPLOAD_CONCURRENCY = "s3PartitionUploadConcurrency";
+    public static final String PROP_S3_SHARED_TRANSFER_SERVICE = "s3SharedTransferService";
+    public static final String PROP_S3_MAX_CONCURRENT_UPLOADS = "s3MaxConcurrentUploads";
+    public static final String PROP_S3_PARQUET_COMPRESSION_CODEC = "s3ParquetCompressionCodec";
+    public static final String PROP_S3_PARQUET_ROW_GROUP_SIZE = "s3ParquetRowGroupSize";
+    public static final String PROP_S3_PARQUET_PAGE_SIZE = "s3ParquetPageSize";
+    public static final String PROP_S3_PARQUET_DICTIONARY_ENCODING = "s3ParquetDictionaryEncoding";
     public static final String PROP_REDSHIFT_ENDPOINT = "redshiftEndpoint";
     public static final String PROP_REDSHIFT_USERNAME = "redshiftUsername";
     public static final String PROP_REDSHIFT_PASSWORD = "redshiftPassword";
@@ -73,11 +89,39 @@ public class KinesisConnectorConfiguration {
     public static final String PROP_REDSHIFT_FILE_KEY_COLUMN = "redshiftFileKeyColumn";
     public static final String PROP_REDSHIFT_DATA_DELIMITER = "redshiftDataDelimiter";
     public static final String PROP_REDSHIFT_COPY_MANDATORY = "redshiftCopyMandatory";
+    public static final String PROP_REDSHIFT_CONNECTION_POOL_SIZE = "redshiftConnectionPoolSize";
+    public static final String PROP_REDSHIFT_CONNECTION_MAX_IDLE_MILLIS = "redshiftConnectionMaxIdleMillis";
+    public static final String PROP_REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS = "redshiftConnectionValidateAfterMillis";
+    public static final String PROP_REDSHIFT_LOAD_WINDOW_MILLIS = "redshiftLoadWindowMillis";
+    public static final String PROP_REDSHIFT_LOAD_MAX_FILES = "redshiftLoadMaxFiles";
+    public static final String PROP_REDSHIFT_LOAD_TIMEOUT_MILLIS = "redshiftLoadTimeoutMillis";
+    public static final String PROP_REDSHIFT_FILE_TABLE_STAGING_DEDUP = "redshiftFileTableStagingDedup";
+    public static final String PROP_REDSHIFT_COMMITTED_FILE_CACHE = "redshiftCommittedFileCache";
+    public static final String PROP_REDSHIFT_COMMITTED_FILE_CACHE_SEED = "redshiftCommittedFileCacheSeed";
+    public static final String PROP_REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES =
+            "redshiftCommittedFileCacheExpectedFiles";
+    public static final String PROP_REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES = "redshiftCommittedFileCacheRecentFiles";
+    public static final String PROP_REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED = "redshiftCommittedFileCacheTrusted";
+    public static final String PROP_REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD = "redshiftSpeculativeManifestUpload";
+    public static final String PROP_REDSHIFT_LOG_COPY_COUNT = "redshiftLogCopyCount";
+    public static final String PROP_REDSHIFT_COPY_FILE_COUNT = "redshiftCopyFileCount";
+    public static final String PROP_REDSHIFT_COPY_COMP_UPDATE = "redshiftCopyCompUpdate";
+    public static final String PROP_REDSHIFT_COPY_STAT_UPDATE = "redshiftCopyStatUpdate";
+    public static final String PROP_REDSHIFT_COPY_MAX_ERROR = "redshiftCopyMaxError";
     public static final String PROP_BUFFER_RECORD_COUNT_LIMIT = "bufferRecordCountLimit";
     public static final String PROP_BUFFER_BYTE_SIZE_LIMIT = "bufferByteSizeLimit";
     public static final String PROP_BUFFER_MILLISECONDS_LIMIT = "bufferMillisecondsLimit";
+    public static final String PROP_BUFFER_PREALLOCATE = "bufferPreallocate";
     public static final String PROP_DYNAMODB_ENDPOINT = "dynamoDBEndpoint";
     public static final String PROP_DYNAMODB_DATA_TABLE_NAME = "dynamoDBDataTableName";
+    public static final String PROP_DYNAMODB_BATCH_WRITE_CONCURRENCY = "dynamoDBBatchWriteConcurrency";
+    public static final String PROP_DYNAMODB_UNPROCESSED_RETRY_LIMIT = "dynamoDBUnprocessedRetryLimit";
+    public static final String PROP_DYNAMODB_RETRY_BASE_BACKOFF_MILLIS = "dynamoDBRetryBaseBackoffMillis";
+    public static final String PROP_DYNAMODB_RETRY_MAX_BACKOFF_MILLIS = "dynamoDBRetryMaxBackoffMillis";
+    public static final String PROP_DYNAMODB_ADAPTIVE_RATE_LIMIT = "dynamoDBAdaptiveRateLimit";
+    public static final String PROP_DYNAMODB_INITIAL_WRITE_RATE = "dynamoDBInitialWriteRate";
+    public static final String PROP_DYNAMODB_WRITE_RATE_INCREASE = "dynamoDBWriteRateIncrease";
+    public static final String PROP_DYNAMODB_DEDUPE_BY_KEY = "dynamoDBDedupeByKey";
     public static final String PROP_CLOUDWATCH_NAMESPACE = "cloudWatchNamespace";
     public static final String PROP_CLOUDWATCH_BUFFER_TIME = "cloudWatchBufferTime";
     public static final String PROP_CLOUDWATCH_MAX_QUEUE_SIZE = "cloudWatchMaxQueueSize";
@@ -90,6 +134,21 @@ public class KinesisConnectorConfiguration {
     public static final String PROP_ELASTICSEARCH_NODE_SAMPLER_INTERVAL = "clientTransportNodesSamplerInterval";
     public static final String PROP_ELASTICSEARCH_DEFAULT_INDEX_NAME = "elasticsearchDefaultIndexName";
     public static final String PROP_ELASTICSEARCH_DEFAULT_TYPE_NAME = "elasticsearchDefaultTypeName";
+    public static final String PROP_ELASTICSEARCH_BULK_MAX_ACTIONS = "elasticsearchBulkMaxActions";
+    public static final String PROP_ELASTICSEARCH_BULK_MAX_BYTES = "elasticsearchBulkMaxBytes";
+    public static final String PROP_ELASTICSEARCH_BULK_CONCURRENCY = "elasticsearchBulkConcurrency";
+    public static final String PROP_ELASTICSEARCH_BULK_MAX_ATTEMPTS = "elasticsearchBulkMaxAttempts";
+    public static final String PROP_ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS = "elasticsearchRetryBaseBackoffMillis";
+    public static final String PROP_ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS = "elasticsearchRetryMaxBackoffMillis";
+    public static final String PROP_ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD =
+            "elasticsearchCircuitBreakerFailureThreshold";
+    public static final String PROP_ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS = "elasticsearchCircuitBreakerOpenMillis";
+    public static final String PROP_ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS =
+            "elasticsearchCircuitBreakerMaxOpenMillis";
+    public static final String PROP_ELASTICSEARCH_REJECTED_RESEND_LIMIT = "elasticsearchRejectedResendLimit";
+    public static final String PROP_ELASTICSEARCH_HTTP_PORT = "elasticsearchHttpPort";
+    public static final String PROP_ELASTICSEARCH_HTTP_MAX_CONNECTIONS = "elasticsearchHttpMaxConnections";
+    public static final String PROP_ELASTICSEARCH_HTTP_GZIP = "elasticsearchHttpGzip";
     public static final String PROP_ELASTICSEARCH_CLOUDFORMATION_TEMPLATE_URL =
             "elasticsearchCloudFormationTemplateUrl";
     public static final String PROP_ELASTICSEARCH_CLOUDFORMATION_STACK_NAME = "elasticsearchCloudFormationStackName";
@@ -111,7 +170,10 @@ public class KinesisConnectorConfiguration {
     public static final long DEFAULT_BUFFER_RECORD_COUNT_LIMIT = 1000L;
     public static final long DEFAULT_BUFFER_BYTE_SIZE_LIMIT = 1024 * 1024L;
     public static final long DEFAULT_BUFFER_MILLISECONDS_LIMIT = Long.MAX_VALUE;
+    public static final boolean DEFAULT_BUFFER_PREALLOCATE = false;
     public static final boolean DEFAULT_BATCH_RECORDS_IN_PUT_REQUEST = false;
+    public static final boolean DEFAULT_ASYNC_EMIT = false;
+    public static final int DEFAULT_ASYNC_EMIT_MAX_PENDING_BATCHES = 1;
 
     // Default Amazon Kinesis Constants
     public static final String DEFAULT_KINESIS_ENDPOINT = null;
@@ -136,6 +198,25 @@ public class KinesisConnectorConfiguration {
     // Default Amazon S3 Constants
     public static final String DEFAULT_S3_ENDPOINT = "https://s3.amazonaws.com";
     public static final String DEFAULT_S3_BUCKET = "kinesis-bucket";
+    public static final boolean DEFAULT_S3_PATH_STYLE_ACCESS = false;
+    // A part size of 0 disables multipart uploads
+    public static final int DEFAULT_S3_MULTIPART_PART_SIZE = 0;
+    public static final int DEFAULT_S3_MULTIPART_CONCURRENCY = 4;
+    // -1 is the default deflate level
+    public static final int DEFAULT_S3_GZIP_COMPRESSION_LEVEL = -1;
+    public static final int DEFAULT_S3_GZIP_BLOCK_SIZE = 1024 * 1024;
+    // A single thread compresses sequentially on the emitting thread
+    public static final int DEFAULT_S3_GZIP_THREADS = 1;
+    // The name of a StandardCompressionCodec; null writes uncompressed files
+    public static final String DEFAULT_S3_COMPRESSION_CODEC = null;
+    public static final int DEFAULT_S3_PARTITION_UPLOAD_CONCURRENCY = 4;
+    public static final boolean DEFAULT_S3_SHARED_TRANSFER_SERVICE = false;
+    public static final int DEFAULT_S3_MAX_CONCURRENT_UPLOADS = 16;
+    // UNCOMPRESSED, SNAPPY or GZIP
+    public static final String DEFAULT_S3_PARQUET_COMPRESSION_CODEC = "SNAPPY";
+    public static final int DEFAULT_S3_PARQUET_ROW_GROUP_SIZE = 128 * 1024 * 1024;
+    public static final int DEFAULT_S3_PARQUET_PAGE_SIZE = 1024 * 1024;
+    public static final boolean DEFAULT_S3_PARQUET_DICTIONARY_ENCODING = true;
 
     // Default Amazon Redshift Constants
     public static final String DEFAULT_REDSHIFT_ENDPOINT = "https://redshift.us-east-1.amazonaws.com";
@@ -147,10 +228,48 @@ public class KinesisConnectorConfiguration {
     public static final String DEFAULT_REDSHIFT_FILE_KEY_COLUMN = "file";
     public static final Character DEFAULT_REDSHIFT_DATA_DELIMITER = '|';
     public static final boolean DEFAULT_REDSHIFT_COPY_MANDATORY = true;
+    // Shared by all Redshift emitters in the JVM using the same URL and user
+    public static final int DEFAULT_REDSHIFT_CONNECTION_POOL_SIZE = 10;
+    public static final long DEFAULT_REDSHIFT_CONNECTION_MAX_IDLE_MILLIS = 5L * 60 * 1000;
+    public static final long DEFAULT_REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS = 30L * 1000;
+    // 0 copies each file as soon as it is written, without a RedshiftLoadCoordinator
+    public static final long DEFAULT_REDSHIFT_LOAD_WINDOW_MILLIS = 0L;
+    public static final int DEFAULT_REDSHIFT_LOAD_MAX_FILES = 1000;
+    // How long an emitter waits for its group's COPY to start before withdrawing its files
+    public static final long DEFAULT_REDSHIFT_LOAD_TIMEOUT_MILLIS = 5L * 60 * 1000;
+    public static final boolean DEFAULT_REDSHIFT_FILE_TABLE_STAGING_DEDUP = false;
+    public static final boolean DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE = false;
+    public static final boolean DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_SEED = true;
+    // About 1.2 MB for each of the two bloom filter generations, for a 1% false positive rate; the bloom filter is only
+    // kept with redshiftCommittedFileCacheTrusted
+    public static final int DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES = 1000000;
+    public static final int DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES = 10000;
+    // Without it the cache only saves looking up files this JVM recently committed, such as replayed ones
+    public static final boolean DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED = false;
+    public static final boolean DEFAULT_REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD = false;
+    public static final boolean DEFAULT_REDSHIFT_LOG_COPY_COUNT = true;
+    // 0 splits each batch into one file per slice of the cluster, as counted in stv_slices
+    public static final int DEFAULT_REDSHIFT_COPY_FILE_COUNT = 1;
+    // null leaves COMPUPDATE and STATUPDATE out of the COPY, so Amazon Redshift decides
+    public static final String DEFAULT_REDSHIFT_COPY_COMP_UPDATE = null;
+    public static final String DEFAULT_REDSHIFT_COPY_STAT_UPDATE = null;
+    // 0 fails the COPY on the first record that cannot be loaded
+    public static final int DEFAULT_REDSHIFT_COPY_MAX_ERROR = 0;
 
     // Default Amazon DynamoDB Constants
     public static final String DEFAULT_DYNAMODB_ENDPOINT = "dynamodb.us-east-1.amazonaws.com";
     public static final String DEFAULT_DYNAMODB_DATA_TABLE_NAME = "dynamodb_emitter_test";
+    // A concurrency of 1 writes batches of 16 items one after another
+    public static final int DEFAULT_DYNAMODB_BATCH_WRITE_CONCURRENCY = 1;
+    // A retry limit of 0 returns unprocessed items to the record processor straight away
+    public static final int DEFAULT_DYNAMODB_UNPROCESSED_RETRY_LIMIT = 0;
+    public static final long DEFAULT_DYNAMODB_RETRY_BASE_BACKOFF_MILLIS = 50L;
+    public static final long DEFAULT_DYNAMODB_RETRY_MAX_BACKOFF_MILLIS = 5000L;
+    public static final boolean DEFAULT_DYNAMODB_ADAPTIVE_RATE_LIMIT = false;
+    // Write capacity units per second
+    public static final int DEFAULT_DYNAMODB_INITIAL_WRITE_RATE = 100;
+    public static final int DEFAULT_DYNAMODB_WRITE_RATE_INCREASE = 5;
+    public static final boolean DEFAULT_DYNAMODB_DEDUPE_BY_KEY = false;
 
     // Default Amazon CloudWatch Constants
     public static final String DEFAULT_CLOUDWATCH_NAMESPACE = DEFAULT_APP_NAME;
@@ -167,6 +286,23 @@ public class KinesisConnectorConfiguration {
     public static final String DEFAULT_ELASTICSEARCH_NODE_SAMPLER_INTERVAL = "5s";
     public static final String DEFAULT_ELASTICSEARCH_DEFAULT_INDEX_NAME = "index";
     public static final String DEFAULT_ELASTICSEARCH_DEFAULT_TYPE_NAME = "type";
+    // Same limits as the Elasticsearch BulkProcessor
+    public static final int DEFAULT_ELASTICSEARCH_BULK_MAX_ACTIONS = 1000;
+    public static final long DEFAULT_ELASTICSEARCH_BULK_MAX_BYTES = 5L * 1024 * 1024;
+    // A concurrency of 1 sends bulk requests one after another
+    public static final int DEFAULT_ELASTICSEARCH_BULK_CONCURRENCY = 1;
+    // 0 retries a bulk request until it gets a response, holding the shard rather than failing its records
+    public static final int DEFAULT_ELASTICSEARCH_BULK_MAX_ATTEMPTS = 0;
+    public static final long DEFAULT_ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS = 100L;
+    public static final long DEFAULT_ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS = 10000L;
+    public static final int DEFAULT_ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS = 5000L;
+    public static final long DEFAULT_ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS = 120000L;
+    public static final int DEFAULT_ELASTICSEARCH_REJECTED_RESEND_LIMIT = 3;
+    public static final int DEFAULT_ELASTICSEARCH_HTTP_PORT = 9200;
+    // Shared by all ElasticsearchHttpEmitters in the JVM
+    public static final int DEFAULT_ELASTICSEARCH_HTTP_MAX_CONNECTIONS = 16;
+    public static final boolean DEFAULT_ELASTICSEARCH_HTTP_GZIP = true;
     public static final String DEFAULT_ELASTICSEARCH_CLOUDFORMATION_TEMPLATE_URL = "Elasticsearch.template";
     public static final String DEFAULT_ELASTICSEARCH_CLOUDFORMATION_STACK_NAME = "kinesisElasticsearchSample";
     public static final String DEFAULT_ELASTICSEARCH_VERSION_NUMBER = "1.2.1";
@@ -186,7 +322,10 @@ public class KinesisConnectorConfiguration {
     public final long BUFFER_RECORD_COUNT_LIMIT;
     public final long BUFFER_BYTE_SIZE_LIMIT;
     public final long BUFFER_MILLISECONDS_LIMIT;
+    public final boolean BUFFER_PREALLOCATE;
     public final boolean BATCH_RECORDS_IN_PUT_REQUEST;
+    public final boolean ASYNC_EMIT;
+    public final int ASYNC_EMIT_MAX_PENDING_BATCHES;
 
     public final String KINESIS_ENDPOINT;
     public final String KINESIS_INPUT_STREAM;
@@ -206,6 +345,20 @@ public class KinesisConnectorConfiguration {
     public final String REGION_NAME;
     public final String S3_ENDPOINT;
     public final String S3_BUCKET;
+    public final boolean S3_PATH_STYLE_ACCESS;
+    public final int S3_MULTIPART_PART_SIZE;
+    public final int S3_MULTIPART_CONCURRENCY;
+    public final int S3_GZIP_COMPRESSION_LEVEL;
+    public final int S3_GZIP_BLOCK_SIZE;
+    public final int S3_GZIP_THREADS;
+    public final String S3_COMPRESSION_CODEC;
+    public final int S3_PARTITION_UPLOAD_CONCURRENCY;
+    public final boolean S3_SHARED_TRANSFER_SERVICE;
+    public final int S3_MAX_CONCURRENT_UPLOADS;
+    public final String S3_PARQUET_COMPRESSION_CODEC;
+    public final int S3_PARQUET_ROW_GROUP_SIZE;
+    public final int S3_PARQUET_PAGE_SIZE;
+    public final boolean S3_PARQUET_DICTIONARY_ENCODING;
     public final String REDSHIFT_ENDPOINT;
     public final String REDSHIFT_USERNAME;
     public final String REDSHIFT_PASSWORD;
@@ -215,8 +368,34 @@ public class KinesisConnectorConfiguration {
     public final String REDSHIFT_FILE_KEY_COLUMN;
     public final Character REDSHIFT_DATA_DELIMITER;
     public final boolean REDSHIFT_COPY_MANDATORY;
+    public final int REDSHIFT_CONNECTION_POOL_SIZE;
+    public final long REDSHIFT_CONNECTION_MAX_IDLE_MILLIS;
+    public final long REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS;
+    public final long REDSHIFT_LOAD_WINDOW_MILLIS;
+    public final int REDSHIFT_LOAD_MAX_FILES;
+    public final long REDSHIFT_LOAD_TIMEOUT_MILLIS;
+    public final boolean REDSHIFT_FILE_TABLE_STAGING_DEDUP;
+    public final boolean REDSHIFT_COMMITTED_FILE_CACHE;
+    public final boolean REDSHIFT_COMMITTED_FILE_CACHE_SEED;
+    public final int REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES;
+    public final int REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES;
+    public final boolean REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED;
+    public final boolean REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD;
+    public final boolean REDSHIFT_LOG_COPY_COUNT;
+    public final int REDSHIFT_COPY_FILE_COUNT;
+    public final String REDSHIFT_COPY_COMP_UPDATE;
+    public final String REDSHIFT_COPY_STAT_UPDATE;
+    public final int REDSHIFT_COPY_MAX_ERROR;
     public final String DYNAMODB_ENDPOINT;
     public final String DYNAMODB_DATA_TABLE_NAME;
+    public final int DYNAMODB_BATCH_WRITE_CONCURRENCY;
+    public final int DYNAMODB_UNPROCESSED_RETRY_LIMIT;
+    public final long DYNAMODB_RETRY_BASE_BACKOFF_MILLIS;
+    public final long DYNAMODB_RETRY_MAX_BACKOFF_MILLIS;
+    public final boolean DYNAMODB_ADAPTIVE_RATE_LIMIT;
+    public final int DYNAMODB_INITIAL_WRITE_RATE;
+    public final int DYNAMODB_WRITE_RATE_INCREASE;
+    public final boolean DYNAMODB_DEDUPE_BY_KEY;
     public final String CLOUDWATCH_NAMESPACE;
     public final long CLOUDWATCH_BUFFER_TIME;
     public final int CLOUDWATCH_MAX_QUEUE_SIZE;
@@ -229,6 +408,19 @@ public class KinesisConnectorConfiguration {
     public final String ELASTICSEARCH_NODE_SAMPLER_INTERVAL;
     public final String ELASTICSEARCH_DEFAULT_INDEX_NAME;
     public final String ELASTICSEARCH_DEFAULT_TYPE_NAME;
+    public final int ELASTICSEARCH_BULK_MAX_ACTIONS;
+    public final long ELASTICSEARCH_BULK_MAX_BYTES;
+    public final int ELASTICSEARCH_BULK_CONCURRENCY;
+    public final int ELASTICSEARCH_BULK_MAX_ATTEMPTS;
+    public final long ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS;
+    public final long ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS;
+    public final int ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+    public final long ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS;
+    public final long ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS;
+    public final int ELASTICSEARCH_REJECTED_RESEND_LIMIT;
+    public final int ELASTICSEARCH_HTTP_PORT;
+    public final int ELASTICSEARCH_HTTP_MAX_CONNECTIONS;
+    public final boolean ELASTICSEARCH_HTTP_GZIP;
     public final String ELASTICSEARCH_CLOUDFORMATION_TEMPLATE_URL;
     public final String ELASTICSEARCH_CLOUDFORMATION_STACK_NAME;
     public final String ELASTICSEARCH_VERSION_NUMBER;
@@ -260,8 +452,14 @@ public class KinesisConnectorConfiguration {
                 getLongProperty(PROP_BUFFER_BYTE_SIZE_LIMIT, DEFAULT_BUFFER_BYTE_SIZE_LIMIT, properties);
         BUFFER_MILLISECONDS_LIMIT =
                 getLongProperty(PROP_BUFFER_MILLISECONDS_LIMIT, DEFAULT_BUFFER_MILLISECONDS_LIMIT, properties);
+        BUFFER_PREALLOCATE = getBooleanProperty(PROP_BUFFER_PREALLOCATE, DEFAULT_BUFFER_PREALLOCATE, properties);
         BATCH_RECORDS_IN_PUT_REQUEST =
                 getBooleanProperty(PROP_BATCH_RECORDS_IN_PUT_REQUEST, DEFAULT_BATCH_RECORDS_IN_PUT_REQUEST, properties);
+        ASYNC_EMIT = getBooleanProperty(PROP_ASYNC_EMIT, DEFAULT_ASYNC_EMIT, properties);
+        ASYNC_EMIT_MAX_PENDING_BATCHES =
+                getIntegerProperty(PROP_ASYNC_EMIT_MAX_PENDING_BATCHES,
+                        DEFAULT_ASYNC_EMIT_MAX_PENDING_BATCHES,
+                        properties);
 
         // Amazon Kinesis configuration
         KINESIS_ENDPOINT = properties.getProperty(PROP_KINESIS_ENDPOINT, DEFAULT_KINESIS_ENDPOINT);
@@ -279,6 +477,33 @@ public class KinesisConnectorConfiguration {
         // Amazon S3 configuration
         S3_ENDPOINT = properties.getProperty(PROP_S3_ENDPOINT, DEFAULT_S3_ENDPOINT);
         S3_BUCKET = properties.getProperty(PROP_S3_BUCKET, DEFAULT_S3_BUCKET);
+        S3_PATH_STYLE_ACCESS = getBooleanProperty(PROP_S3_PATH_STYLE_ACCESS, DEFAULT_S3_PATH_STYLE_ACCESS, properties);
+        S3_MULTIPART_PART_SIZE =
+                getIntegerProperty(PROP_S3_MULTIPART_PART_SIZE, DEFAULT_S3_MULTIPART_PART_SIZE, properties);
+        S3_MULTIPART_CONCURRENCY =
+                getIntegerProperty(PROP_S3_MULTIPART_CONCURRENCY, DEFAULT_S3_MULTIPART_CONCURRENCY, properties);
+        S3_GZIP_COMPRESSION_LEVEL =
+                getIntegerProperty(PROP_S3_GZIP_COMPRESSION_LEVEL, DEFAULT_S3_GZIP_COMPRESSION_LEVEL, properties);
+        S3_GZIP_BLOCK_SIZE = getIntegerProperty(PROP_S3_GZIP_BLOCK_SIZE, DEFAULT_S3_GZIP_BLOCK_SIZE, properties);
+        S3_GZIP_THREADS = getIntegerProperty(PROP_S3_GZIP_THREADS, DEFAULT_S3_GZIP_THREADS, properties);
+        S3_COMPRESSION_CODEC = properties.getProperty(PROP_S3_COMPRESSION_CODEC, DEFAULT_S3_COMPRESSION_CODEC);
+        S3_PARTITION_UPLOAD_CONCURRENCY =
+                getIntegerProperty(PROP_S3_PARTITION_UPLOAD_CONCURRENCY,
+                        DEFAULT_S3_PARTITION_UPLOAD_CONCURRENCY,
+                        properties);
+        S3_SHARED_TRANSFER_SERVICE =
+                getBooleanProperty(PROP_S3_SHARED_TRANSFER_SERVICE, DEFAULT_S3_SHARED_TRANSFER_SERVICE, properties);
+        S3_MAX_CONCURRENT_UPLOADS =
+                getIntegerProperty(PROP_S3_MAX_CONCURRENT_UPLOADS, DEFAULT_S3_MAX_CONCURRENT_UPLOADS, properties);
+        S3_PARQUET_COMPRESSION_CODEC =
+                properties.getProperty(PROP_S3_PARQUET_COMPRESSION_CODEC, DEFAULT_S3_PARQUET_COMPRESSION_CODEC);
+        S3_PARQUET_ROW_GROUP_SIZE =
+                getIntegerProperty(PROP_S3_PARQUET_ROW_GROUP_SIZE, DEFAULT_S3_PARQUET_ROW_GROUP_SIZE, properties);
+        S3_PARQUET_PAGE_SIZE = getIntegerProperty(PROP_S3_PARQUET_PAGE_SIZE, DEFAULT_S3_PARQUET_PAGE_SIZE, properties);
+        S3_PARQUET_DICTIONARY_ENCODING =
+                getBooleanProperty(PROP_S3_PARQUET_DICTIONARY_ENCODING,
+                        DEFAULT_S3_PARQUET_DICTIONARY_ENCODING,
+                        properties);
 
         // Amazon Redshift configuration
         REDSHIFT_ENDPOINT = properties.getProperty(PROP_REDSHIFT_ENDPOINT, DEFAULT_REDSHIFT_ENDPOINT);
@@ -293,11 +518,87 @@ public class KinesisConnectorConfiguration {
                 getCharacterProperty(PROP_REDSHIFT_DATA_DELIMITER, DEFAULT_REDSHIFT_DATA_DELIMITER, properties);
         REDSHIFT_COPY_MANDATORY =
                 getBooleanProperty(PROP_REDSHIFT_COPY_MANDATORY, DEFAULT_REDSHIFT_COPY_MANDATORY, properties);
+        REDSHIFT_CONNECTION_POOL_SIZE =
+                getIntegerProperty(PROP_REDSHIFT_CONNECTION_POOL_SIZE, DEFAULT_REDSHIFT_CONNECTION_POOL_SIZE, properties);
+        REDSHIFT_CONNECTION_MAX_IDLE_MILLIS =
+                getLongProperty(PROP_REDSHIFT_CONNECTION_MAX_IDLE_MILLIS,
+                        DEFAULT_REDSHIFT_CONNECTION_MAX_IDLE_MILLIS,
+                        properties);
+        REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS =
+                getLongProperty(PROP_REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS,
+                        DEFAULT_REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS,
+                        properties);
+        REDSHIFT_LOAD_WINDOW_MILLIS =
+                getLongProperty(PROP_REDSHIFT_LOAD_WINDOW_MILLIS, DEFAULT_REDSHIFT_LOAD_WINDOW_MILLIS, properties);
+        REDSHIFT_LOAD_MAX_FILES =
+                getIntegerProperty(PROP_REDSHIFT_LOAD_MAX_FILES, DEFAULT_REDSHIFT_LOAD_MAX_FILES, properties);
+        REDSHIFT_LOAD_TIMEOUT_MILLIS =
+                getLongProperty(PROP_REDSHIFT_LOAD_TIMEOUT_MILLIS, DEFAULT_REDSHIFT_LOAD_TIMEOUT_MILLIS, properties);
+        REDSHIFT_FILE_TABLE_STAGING_DEDUP =
+                getBooleanProperty(PROP_REDSHIFT_FILE_TABLE_STAGING_DEDUP,
+                        DEFAULT_REDSHIFT_FILE_TABLE_STAGING_DEDUP,
+                        properties);
+        REDSHIFT_COMMITTED_FILE_CACHE =
+                getBooleanProperty(PROP_REDSHIFT_COMMITTED_FILE_CACHE, DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE, properties);
+        REDSHIFT_COMMITTED_FILE_CACHE_SEED =
+                getBooleanProperty(PROP_REDSHIFT_COMMITTED_FILE_CACHE_SEED,
+                        DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_SEED,
+                        properties);
+        REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES =
+                getIntegerProperty(PROP_REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES,
+                        DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES,
+                        properties);
+        REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES =
+                getIntegerProperty(PROP_REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES,
+                        DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES,
+                        properties);
+        REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED =
+                getBooleanProperty(PROP_REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED,
+                        DEFAULT_REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED,
+                        properties);
+        REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD =
+                getBooleanProperty(PROP_REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD,
+                        DEFAULT_REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD,
+                        properties);
+        REDSHIFT_LOG_COPY_COUNT =
+                getBooleanProperty(PROP_REDSHIFT_LOG_COPY_COUNT, DEFAULT_REDSHIFT_LOG_COPY_COUNT, properties);
+        REDSHIFT_COPY_FILE_COUNT =
+                getIntegerProperty(PROP_REDSHIFT_COPY_FILE_COUNT, DEFAULT_REDSHIFT_COPY_FILE_COUNT, properties);
+        REDSHIFT_COPY_COMP_UPDATE =
+                properties.getProperty(PROP_REDSHIFT_COPY_COMP_UPDATE, DEFAULT_REDSHIFT_COPY_COMP_UPDATE);
+        REDSHIFT_COPY_STAT_UPDATE =
+                properties.getProperty(PROP_REDSHIFT_COPY_STAT_UPDATE, DEFAULT_REDSHIFT_COPY_STAT_UPDATE);
+        REDSHIFT_COPY_MAX_ERROR =
+                getIntegerProperty(PROP_REDSHIFT_COPY_MAX_ERROR, DEFAULT_REDSHIFT_COPY_MAX_ERROR, properties);
 
         // Amazon DynamoDB configuration
         DYNAMODB_ENDPOINT = properties.getProperty(PROP_DYNAMODB_ENDPOINT, DEFAULT_DYNAMODB_ENDPOINT);
         DYNAMODB_DATA_TABLE_NAME =
                 properties.getProperty(PROP_DYNAMODB_DATA_TABLE_NAME, DEFAULT_DYNAMODB_DATA_TABLE_NAME);
+        DYNAMODB_BATCH_WRITE_CONCURRENCY =
+                getIntegerProperty(PROP_DYNAMODB_BATCH_WRITE_CONCURRENCY,
+                        DEFAULT_DYNAMODB_BATCH_WRITE_CONCURRENCY,
+                        properties);
+        DYNAMODB_UNPROCESSED_RETRY_LIMIT =
+                getIntegerProperty(PROP_DYNAMODB_UNPROCESSED_RETRY_LIMIT,
+                        DEFAULT_DYNAMODB_UNPROCESSED_RETRY_LIMIT,
+                        properties);
+        DYNAMODB_RETRY_BASE_BACKOFF_MILLIS =
+                getLongProperty(PROP_DYNAMODB_RETRY_BASE_BACKOFF_MILLIS,
+                        DEFAULT_DYNAMODB_RETRY_BASE_BACKOFF_MILLIS,
+                        properties);
+        DYNAMODB_RETRY_MAX_BACKOFF_MILLIS =
+                getLongProperty(PROP_DYNAMODB_RETRY_MAX_BACKOFF_MILLIS,
+                        DEFAULT_DYNAMODB_RETRY_MAX_BACKOFF_MILLIS,
+                        properties);
+        DYNAMODB_ADAPTIVE_RATE_LIMIT =
+                getBooleanProperty(PROP_DYNAMODB_ADAPTIVE_RATE_LIMIT, DEFAULT_DYNAMODB_ADAPTIVE_RATE_LIMIT, properties);
+        DYNAMODB_INITIAL_WRITE_RATE =
+                getIntegerProperty(PROP_DYNAMODB_INITIAL_WRITE_RATE, DEFAULT_DYNAMODB_INITIAL_WRITE_RATE, properties);
+        DYNAMODB_WRITE_RATE_INCREASE =
+                getIntegerProperty(PROP_DYNAMODB_WRITE_RATE_INCREASE, DEFAULT_DYNAMODB_WRITE_RATE_INCREASE, properties);
+        DYNAMODB_DEDUPE_BY_KEY =
+                getBooleanProperty(PROP_DYNAMODB_DEDUPE_BY_KEY, DEFAULT_DYNAMODB_DEDUPE_BY_KEY, properties);
 
         // Amazon CloudWatch configuration
         CLOUDWATCH_NAMESPACE = properties.getProperty(PROP_CLOUDWATCH_NAMESPACE, DEFAULT_CLOUDWATCH_NAMESPACE);
@@ -329,6 +630,44 @@ public class KinesisConnectorConfiguration {
                 properties.getProperty(PROP_ELASTICSEARCH_DEFAULT_INDEX_NAME, DEFAULT_ELASTICSEARCH_DEFAULT_INDEX_NAME);
         ELASTICSEARCH_DEFAULT_TYPE_NAME =
                 properties.getProperty(PROP_ELASTICSEARCH_DEFAULT_TYPE_NAME, DEFAULT_ELASTICSEARCH_DEFAULT_TYPE_NAME);
+        ELASTICSEARCH_BULK_MAX_ACTIONS =
+                getIntegerProperty(PROP_ELASTICSEARCH_BULK_MAX_ACTIONS, DEFAULT_ELASTICSEARCH_BULK_MAX_ACTIONS, properties);
+        ELASTICSEARCH_BULK_MAX_BYTES =
+                getLongProperty(PROP_ELASTICSEARCH_BULK_MAX_BYTES, DEFAULT_ELASTICSEARCH_BULK_MAX_BYTES, properties);
+        ELASTICSEARCH_BULK_CONCURRENCY =
+                getIntegerProperty(PROP_ELASTICSEARCH_BULK_CONCURRENCY, DEFAULT_ELASTICSEARCH_BULK_CONCURRENCY, properties);
+        ELASTICSEARCH_BULK_MAX_ATTEMPTS =
+                getIntegerProperty(PROP_ELASTICSEARCH_BULK_MAX_ATTEMPTS, DEFAULT_ELASTICSEARCH_BULK_MAX_ATTEMPTS, properties);
+        ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS =
+                getLongProperty(PROP_ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS,
+                        DEFAULT_ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS,
+                        properties);
+        ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS =
+                getLongProperty(PROP_ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS,
+                        DEFAULT_ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS,
+                        properties);
+        ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD =
+                getIntegerProperty(PROP_ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                        DEFAULT_ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                        properties);
+        ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS =
+                getLongProperty(PROP_ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS,
+                        DEFAULT_ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS,
+                        properties);
+        ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS =
+                getLongProperty(PROP_ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS,
+                        DEFAULT_ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS,
+                        properties);
+        ELASTICSEARCH_REJECTED_RESEND_LIMIT =
+                getIntegerProperty(PROP_ELASTICSEARCH_REJECTED_RESEND_LIMIT,
+                        DEFAULT_ELASTICSEARCH_REJECTED_RESEND_LIMIT,
+                        properties);
+        ELASTICSEARCH_HTTP_PORT = getIntegerProperty(PROP_ELASTICSEARCH_HTTP_PORT, DEFAULT_ELASTICSEARCH_HTTP_PORT, properties);
+        ELASTICSEARCH_HTTP_MAX_CONNECTIONS =
+                getIntegerProperty(PROP_ELASTICSEARCH_HTTP_MAX_CONNECTIONS,
+                        DEFAULT_ELASTICSEARCH_HTTP_MAX_CONNECTIONS,
+                        properties);
+        ELASTICSEARCH_HTTP_GZIP = getBooleanProperty(PROP_ELASTICSEARCH_HTTP_GZIP, DEFAULT_ELASTICSEARCH_HTTP_GZIP, properties);
         ELASTICSEARCH_CLOUDFORMATION_TEMPLATE_URL =
                 properties.getProperty(PROP_ELASTICSEARCH_CLOUDFORMATION_TEMPLATE_URL,
                         DEFAULT_ELASTICSEARCH_CLOUDFORMATION_TEMPLATE_URL);
@@ -18,6 +18,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -57,7 +61,13 @@ import com.amazonaws.services.kinesis.model.Record;
  * <li>When the shutdown() method of this class is invoked, a call is made to the IEmitter.shutdown() method which
  * should close any existing client connections.</li>
  * </ol>
- *
+ * <p>
+ * When asyncEmit is enabled, a full buffer is transformed, cleared and handed to a single per-shard emit thread, so the
+ * record processor keeps buffering the next batch while the previous one is emitted. At most
+ * asyncEmitMaxPendingBatches batches may be waiting on or running in the emit thread; processRecords() blocks until
+ * one completes when the limit is reached. Batches are emitted and checkpointed strictly in the order they were
+ * flushed. Unlike the synchronous mode, a batch whose emit throws an IOException is passed to IEmitter.fail() rather
+ * than kept in the buffer, since the buffer has already moved on to the next batch.
  */
 public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
 
@@ -67,10 +77,16 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
     private final IBuffer<T> buffer;
     private final int retryLimit;
     private final long backoffInterval;
+    private final boolean asyncEmit;
+    private final Semaphore pendingEmits;
+    private ExecutorService emitExecutor;
     private boolean isShutdown = false;
 
     private static final Log LOG = LogFactory.getLog(KinesisConnectorRecordProcessor.class);
 
+    // How often to log while waiting for pending emits to complete on shutdown
+    private static final long EMIT_SHUTDOWN_LOG_INTERVAL_MILLIS = 10000L;
+
     private String shardId;
 
     public KinesisConnectorRecordProcessor(IBuffer<T> buffer,
@@ -92,11 +108,17 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
             retryLimit = configuration.RETRY_LIMIT;
         }
         this.backoffInterval = configuration.BACKOFF_INTERVAL;
+        this.asyncEmit = configuration.ASYNC_EMIT;
+        // At least one batch must be allowed in flight
+        this.pendingEmits = new Semaphore(Math.max(1, configuration.ASYNC_EMIT_MAX_PENDING_BATCHES));
     }
 
     @Override
     public void initialize(String shardId) {
         this.shardId = shardId;
+        if (asyncEmit) {
+            emitExecutor = Executors.newSingleThreadExecutor();
+        }
     }
 
     @Override
@@ -155,11 +177,39 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
         return emitItems;
     }
 
-    private void emit(IRecordProcessorCheckpointer checkpointer, List<U> emitItems) {
-        List<U> unprocessed = new ArrayList<U>(emitItems);
+    private void emit(final IRecordProcessorCheckpointer checkpointer, List<U> emitItems) {
+        if (emitExecutor == null) {
+            emit(checkpointer, new UnmodifiableBuffer<U>(buffer, emitItems), true);
+            return;
+        }
+        // Capture the batch, including its sequence numbers, before the buffer is reused
+        final UnmodifiableBuffer<U> batch = new UnmodifiableBuffer<U>(buffer, emitItems);
+        buffer.clear();
+        try {
+            pendingEmits.acquire();
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while waiting for a pending emit for shardId: " + shardId, e);
+            Thread.currentThread().interrupt();
+            emitter.fail(batch.getRecords());
+            return;
+        }
+        emitExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    emit(checkpointer, batch, false);
+                } finally {
+                    pendingEmits.release();
+                }
+            }
+        });
+    }
+
+    private void emit(IRecordProcessorCheckpointer checkpointer, UnmodifiableBuffer<U> batch, boolean clearBuffer) {
+        List<U> unprocessed = new ArrayList<U>(batch.getRecords());
         try {
             for (int numTries = 0; numTries < retryLimit; numTries++) {
-                unprocessed = emitter.emit(new UnmodifiableBuffer<U>(buffer, unprocessed));
+                unprocessed = emitter.emit(new UnmodifiableBuffer<U>(batch, unprocessed));
                 if (unprocessed.isEmpty()) {
                     break;
                 }
@@ -171,8 +221,10 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
             if (!unprocessed.isEmpty()) {
                 emitter.fail(unprocessed);
             }
-            final String lastSequenceNumberProcessed = buffer.getLastSequenceNumber();
-            buffer.clear();
+            final String lastSequenceNumberProcessed = batch.getLastSequenceNumber();
+            if (clearBuffer) {
+                buffer.clear();
+            }
             // checkpoint once all the records have been consumed
             if (lastSequenceNumberProcessed != null) {
                 checkpointer.checkpoint(lastSequenceNumberProcessed);
@@ -184,6 +236,31 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
         }
     }
 
+    /**
+     * Stops the emit thread. With awaitPending set, batches already handed off are emitted and checkpointed before
+     * this method returns; otherwise batches that have not started are dropped and will be re-read from the stream by
+     * the next owner of the shard.
+     */
+    private void stopEmitExecutor(boolean awaitPending) {
+        if (emitExecutor == null) {
+            return;
+        }
+        if (awaitPending) {
+            emitExecutor.shutdown();
+        } else {
+            emitExecutor.shutdownNow();
+        }
+        try {
+            while (!emitExecutor.awaitTermination(EMIT_SHUTDOWN_LOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.info("Waiting for pending emits to complete for shardId: " + shardId);
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while waiting for pending emits for shardId: " + shardId, e);
+            Thread.currentThread().interrupt();
+        }
+        emitExecutor = null;
+    }
+
     @Override
     public void shutdown(IRecordProcessorCheckpointer checkpointer, ShutdownReason reason) {
         LOG.info("Shutting down record processor with shardId: " + shardId + " with reason " + reason);
@@ -193,6 +270,7 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
         }
         switch (reason) {
             case TERMINATE:
+                stopEmitExecutor(true);
                 emit(checkpointer, transformToOutput(buffer.getRecords()));
                 try {
                     checkpointer.checkpoint();
@@ -201,6 +279,7 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
                 }
                 break;
             case ZOMBIE:
+                stopEmitExecutor(false);
                 break;
             default:
                 throw new IllegalStateException("invalid shutdown reason");
@@ -25,6 +25,10 @@ import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
  * cannot be added to, and retrieving the list of records returns an unmodifiable list. Calling
  * consumeRecord() or clear() will cause an UnathorizedOperationException to be thrown. Calling
  * getRecords() returns the records wrapped in an UnmodifiableList.
+ * <p>
+ * The first and last sequence numbers are captured when the wrapper is created, so the wrapper
+ * still describes the same batch after the underlying buffer has been cleared and refilled. This
+ * allows a batch to be emitted on another thread while the record processor keeps buffering.
  * 
  * @param <T>
  */
@@ -32,15 +36,18 @@ public class UnmodifiableBuffer<T> implements IBuffer<T> {
 
     private final IBuffer<?> buf;
     private final List<T> records;
+    private final String firstSequenceNumber;
+    private final String lastSequenceNumber;
 
     public UnmodifiableBuffer(IBuffer<T> buf) {
-        this.buf = buf;
-        this.records = buf.getRecords();
+        this(buf, buf.getRecords());
     }
 
     public UnmodifiableBuffer(IBuffer<?> buf, List<T> records) {
         this.buf = buf;
         this.records = records;
+        this.firstSequenceNumber = buf.getFirstSequenceNumber();
+        this.lastSequenceNumber = buf.getLastSequenceNumber();
     }
 
     @Override
@@ -75,12 +82,12 @@ public class UnmodifiableBuffer<T> implements IBuffer<T> {
 
     @Override
     public String getFirstSequenceNumber() {
-        return buf.getFirstSequenceNumber();
+        return firstSequenceNumber;
     }
 
     @Override
     public String getLastSequenceNumber() {
-        return buf.getLastSequenceNumber();
+        return lastSequenceNumber;
     }
 
     @Override
@@ -88,6 +95,21 @@ public class UnmodifiableBuffer<T> implements IBuffer<T> {
         return Collections.unmodifiableList(records);
     }
 
+    /**
+     * Get the buffer this batch was taken from, unwrapping any nested UnmodifiableBuffers. Emitters
+     * may use this to read records from a buffer's own storage, after checking that the buffer
+     * still holds this batch.
+     * 
+     * @return the underlying buffer
+     */
+    public IBuffer<?> getBackingBuffer() {
+        IBuffer<?> backing = buf;
+        while (backing instanceof UnmodifiableBuffer) {
+            backing = ((UnmodifiableBuffer<?>) backing).buf;
+        }
+        return backing;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(buf, records);
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.dynamodb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Limits the rate of write capacity units sent to an Amazon DynamoDB table and adapts that rate
+ * with additive increase / multiplicative decrease (AIMD): every batch written without throttling
+ * raises the rate by a fixed step, and a throttled batch halves it. The rate therefore climbs
+ * slowly towards the table's provisioned throughput and backs off sharply when it is exceeded,
+ * rather than oscillating between full speed and long pauses. The rate is only raised while it is
+ * what holds writers back, that is after some caller had to wait for capacity, so a quiet stream
+ * does not push it far past what the table can take and need many throttles to bring it down.
+ * <p>
+ * The rate is halved at most once per throttling event: a throttle reported for a request sent
+ * before the last cut is ignored, since that request went out at the old rate. Otherwise every
+ * batch in flight when the table starts throttling would halve the rate again.
+ * <p>
+ * Capacity is metered with a token bucket holding up to one second of capacity. Callers take an
+ * estimate of the units a request will consume before sending it and correct the estimate with
+ * the consumed capacity reported in the response. One limiter is shared by all emitters writing
+ * to the same table in the JVM; see forTable().
+ */
+public class AdaptiveRateLimiter {
+    private static final Log LOG = LogFactory.getLog(AdaptiveRateLimiter.class);
+
+    private static final Map<String, AdaptiveRateLimiter> LIMITERS = new HashMap<String, AdaptiveRateLimiter>();
+
+    private static final double MIN_RATE = 1.0;
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final String name;
+    private final double increase;
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    // Whether a caller has waited for capacity since the rate was last raised
+    private boolean limited;
+    // When the rate was last cut; throttles of requests sent earlier are already accounted for
+    private long lastDecreaseNanos;
+
+    AdaptiveRateLimiter(String name, double initialRate, double increase) {
+        this.name = name;
+        this.rate = Math.max(MIN_RATE, initialRate);
+        this.increase = increase;
+        this.tokens = rate;
+        this.lastRefillNanos = System.nanoTime();
+        this.lastDecreaseNanos = lastRefillNanos;
+    }
+
+    /**
+     * Returns the limiter shared by all writers to the given table, creating it with the given
+     * initial rate and additive increase (both in write capacity units per second) if needed.
+     *
+     * @param endpoint
+     * @param tableName
+     * @param initialRate
+     * @param increase
+     * @return
+     */
+    public static AdaptiveRateLimiter forTable(String endpoint, String tableName, double initialRate, double increase) {
+        String name = endpoint + "/" + tableName;
+        synchronized (LIMITERS) {
+            AdaptiveRateLimiter limiter = LIMITERS.get(name);
+            if (limiter == null) {
+                limiter = new AdaptiveRateLimiter(name, initialRate, increase);
+                LIMITERS.put(name, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * Takes the given number of capacity units, blocking until the current rate allows them.
+     *
+     * @param units
+     * @throws InterruptedException
+     */
+    public void acquire(double units) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            // Go into debt and wait it out, so large requests are not starved by small ones
+            tokens -= units;
+            waitNanos = tokens < 0 ? (long) (-tokens / rate * 1e9) : 0;
+            if (waitNanos > 0) {
+                limited = true;
+            }
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        }
+    }
+
+    /**
+     * Corrects a previous acquire() with the capacity actually consumed.
+     *
+     * @param estimated
+     *        the units passed to acquire()
+     * @param consumed
+     *        the units reported as consumed
+     */
+    public synchronized void adjust(double estimated, double consumed) {
+        tokens = Math.min(rate, tokens + estimated - consumed);
+    }
+
+    /**
+     * Records a request that was not throttled, raising the rate if a caller has waited for
+     * capacity since it was last raised.
+     */
+    public synchronized void onSuccess() {
+        if (limited) {
+            rate += increase;
+            limited = false;
+        }
+    }
+
+    /**
+     * Records a throttled request, cutting the rate unless it was already cut after the request was
+     * sent.
+     *
+     * @param sentNanos
+     *        the System.nanoTime() at which the throttled request was sent
+     */
+    public synchronized void onThrottle(long sentNanos) {
+        if (sentNanos - lastDecreaseNanos < 0) {
+            return;
+        }
+        lastDecreaseNanos = System.nanoTime();
+        rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+        tokens = Math.min(tokens, rate);
+        LOG.info("Write throttled on " + name + ", reducing rate to " + rate + " capacity units per second");
+    }
+
+    /**
+     * @return the current rate in capacity units per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefillNanos) / 1e9 * rate);
+        lastRefillNanos = now;
+    }
+}
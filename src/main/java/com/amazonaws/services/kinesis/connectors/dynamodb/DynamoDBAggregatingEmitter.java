@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.dynamodb;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+/**
+ * A DynamoDBEmitter that coalesces the records of a buffer into one UpdateItem call per primary
+ * key instead of writing every record as a whole item. For each key, attributes named with
+ * withCounterAttributes() are summed and applied with ADD, so the table accumulates counts across
+ * buffers; every other attribute is applied with SET, taking its value from the last record for
+ * the key. Attributes not present in any record for a key are left untouched. A record missing a
+ * key attribute, or holding a non-numeric value in a counter attribute, cannot be folded in and
+ * is returned as failed.
+ * <p>
+ * The table's key schema is read once, as with dynamoDBDedupeByKey. Updates are sent
+ * concurrently, up to dynamoDBBatchWriteConcurrency at once. If an update fails, every record
+ * that was folded into it is returned for retry. Note that ADD is not idempotent: an update that
+ * fails after Amazon DynamoDB applied it (for example, on a timeout) is counted again on retry.
+ */
+public class DynamoDBAggregatingEmitter extends DynamoDBEmitter {
+    private static final Log LOG = LogFactory.getLog(DynamoDBAggregatingEmitter.class);
+
+    protected final Set<String> counterAttributes = new HashSet<String>();
+
+    public DynamoDBAggregatingEmitter(KinesisConnectorConfiguration configuration) {
+        super(configuration);
+    }
+
+    /**
+     * Names the numeric attributes that are summed and added to the stored value rather than
+     * replacing it.
+     *
+     * @param attributeNames
+     * @return
+     */
+    public DynamoDBAggregatingEmitter withCounterAttributes(String... attributeNames) {
+        counterAttributes.addAll(Arrays.asList(attributeNames));
+        return this;
+    }
+
+    @Override
+    public List<Map<String, AttributeValue>> emit(final UnmodifiableBuffer<Map<String, AttributeValue>> buffer)
+        throws IOException {
+        List<String> keyAttributeNames = getKeyAttributeNames();
+        Map<List<AttributeValue>, Aggregate> aggregates = new LinkedHashMap<List<AttributeValue>, Aggregate>();
+        List<Map<String, AttributeValue>> unproc = new ArrayList<Map<String, AttributeValue>>();
+        for (Map<String, AttributeValue> record : buffer.getRecords()) {
+            String problem = validate(keyAttributeNames, record);
+            if (problem != null) {
+                LOG.error("Cannot aggregate record, " + problem + ": " + record);
+                unproc.add(record);
+                continue;
+            }
+            List<AttributeValue> key = new ArrayList<AttributeValue>(keyAttributeNames.size());
+            for (String name : keyAttributeNames) {
+                key.add(record.get(name));
+            }
+            Aggregate aggregate = aggregates.get(key);
+            if (aggregate == null) {
+                aggregate = new Aggregate(keyAttributeNames, record);
+                aggregates.put(key, aggregate);
+            }
+            aggregate.add(record);
+        }
+
+        ExecutorService executor = getBatchWriteExecutor();
+        List<Future<?>> updates = new ArrayList<Future<?>>(aggregates.size());
+        for (final Aggregate aggregate : aggregates.values()) {
+            updates.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    dynamoDBClient.updateItem(aggregate.toRequest(dynamoDBTableName));
+                    return null;
+                }
+            }));
+        }
+
+        int i = 0;
+        int applied = 0;
+        for (Aggregate aggregate : aggregates.values()) {
+            try {
+                updates.get(i++).get();
+                applied++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted waiting for update of " + aggregate.key, e);
+                unproc.addAll(aggregate.records);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof AmazonClientException) {
+                    LOG.error("Amazon DynamoDB Client could not update item " + aggregate.key, e.getCause());
+                } else {
+                    LOG.error("Unexpected Exception while updating item " + aggregate.key, e.getCause());
+                }
+                unproc.addAll(aggregate.records);
+            }
+        }
+        LOG.info("Successfully emitted " + (buffer.getRecords().size() - unproc.size()) + " records into DynamoDB as "
+                + applied + " updates.");
+        return unproc;
+    }
+
+    /**
+     * Returns why the record cannot be folded into an update: a missing key attribute, or a counter
+     * attribute that ADD could not apply. Each attribute name gets one treatment, so a counter is
+     * never also SET in the same update.
+     *
+     * @return the problem, or null if the record can be aggregated
+     */
+    private String validate(List<String> keyAttributeNames, Map<String, AttributeValue> record) {
+        for (String name : keyAttributeNames) {
+            if (record.get(name) == null) {
+                return "missing key attribute " + name;
+            }
+        }
+        for (String name : counterAttributes) {
+            AttributeValue value = record.get(name);
+            if (value != null && value.getN() == null) {
+                return "counter attribute " + name + " is not a number";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The folded updates for one primary key.
+     */
+    private class Aggregate {
+        private final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        private final Map<String, BigDecimal> counters = new LinkedHashMap<String, BigDecimal>();
+        private final Map<String, AttributeValue> values = new LinkedHashMap<String, AttributeValue>();
+        private final List<Map<String, AttributeValue>> records = new ArrayList<Map<String, AttributeValue>>();
+
+        private Aggregate(List<String> keyAttributeNames, Map<String, AttributeValue> record) {
+            for (String name : keyAttributeNames) {
+                key.put(name, record.get(name));
+            }
+        }
+
+        private void add(Map<String, AttributeValue> record) {
+            records.add(record);
+            for (Map.Entry<String, AttributeValue> attribute : record.entrySet()) {
+                String name = attribute.getKey();
+                AttributeValue value = attribute.getValue();
+                if (key.containsKey(name)) {
+                    continue;
+                }
+                if (counterAttributes.contains(name)) {
+                    BigDecimal sum = counters.get(name);
+                    BigDecimal delta = new BigDecimal(value.getN());
+                    counters.put(name, sum == null ? delta : sum.add(delta));
+                } else {
+                    values.put(name, value);
+                }
+            }
+        }
+
+        private UpdateItemRequest toRequest(String tableName) {
+            UpdateItemRequest request = new UpdateItemRequest().withTableName(tableName).withKey(key);
+            if (counters.isEmpty() && values.isEmpty()) {
+                return request;
+            }
+            Map<String, String> names = new HashMap<String, String>();
+            Map<String, AttributeValue> placeholders = new HashMap<String, AttributeValue>();
+            StringBuilder add = new StringBuilder();
+            StringBuilder set = new StringBuilder();
+            int n = 0;
+            for (Map.Entry<String, BigDecimal> counter : counters.entrySet()) {
+                names.put("#a" + n, counter.getKey());
+                placeholders.put(":a" + n, new AttributeValue().withN(counter.getValue().toPlainString()));
+                add.append(add.length() == 0 ? "ADD " : ", ").append("#a").append(n).append(" :a").append(n);
+                n++;
+            }
+            for (Map.Entry<String, AttributeValue> value : values.entrySet()) {
+                names.put("#a" + n, value.getKey());
+                placeholders.put(":a" + n, value.getValue());
+                set.append(set.length() == 0 ? "SET " : ", ").append("#a").append(n).append(" = :a").append(n);
+                n++;
+            }
+            String expression = set.length() == 0 ? add.toString() : add.length() == 0 ? set.toString() : set + " " + add;
+            return request.withUpdateExpression(expression)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(placeholders);
+        }
+    }
+}
@@ -15,14 +15,22 @@
 package com.amazonaws.services.kinesis.connectors.dynamodb;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,7 +40,11 @@ import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
 import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
@@ -43,17 +55,60 @@ import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
  * DynamoDBTransformer, which is able to transform records into a format that can be sent to
  * Amazon DynamoDB. An Amazon DynamoDB client is used to perform batch requests on the contents of a buffer when
  * emitting. This class requires the configuration of an Amazon DynamoDB endpoint and table name.
+ * <p>
+ * By default batches of 16 items are written one after another. With dynamoDBBatchWriteConcurrency greater than one,
+ * items are instead packed into batches of up to 25 items and 16MB by estimated item size, and up to that many batches
+ * are written concurrently. The unprocessed items of all batches, and the items of any batch whose request failed, are
+ * returned for retry.
+ * <p>
+ * With dynamoDBUnprocessedRetryLimit greater than zero, unprocessed items of a batch are resent by the emitter itself,
+ * up to that many times, after an exponential backoff with full jitter between dynamoDBRetryBaseBackoffMillis and
+ * dynamoDBRetryMaxBackoffMillis, instead of waiting for the record processor's fixed backoff. With
+ * dynamoDBAdaptiveRateLimit enabled, writes also pass through an AdaptiveRateLimiter shared by all emitters writing to
+ * the table, which is fed the consumed capacity reported by each response.
+ * <p>
+ * By default a buffer is deduplicated by whole item, so two versions of an item with the same key both reach the
+ * batch, which Amazon DynamoDB rejects. With dynamoDBDedupeByKey enabled, the table's key schema is read once and only
+ * the last item for each primary key in the buffer is written (see uniqueItemsByKey).
  */
 public class DynamoDBEmitter implements IEmitter<Map<String, AttributeValue>> {
     private static final Log LOG = LogFactory.getLog(DynamoDBEmitter.class);
     protected final String dynamoDBEndpoint;
     protected final String dynamoDBTableName;
     protected final AmazonDynamoDBClient dynamoDBClient;
+    protected final int batchWriteConcurrency;
+    private ExecutorService batchWriteExecutor;
+    protected final int unprocessedRetryLimit;
+    protected final long retryBaseBackoffMillis;
+    protected final long retryMaxBackoffMillis;
+    protected final AdaptiveRateLimiter rateLimiter;
+    protected final boolean dedupeByKey;
+    private volatile List<String> keyAttributeNames;
+
+    // BatchWriteItem limits
+    private static final int MAX_BATCH_ITEMS = 25;
+    private static final long MAX_BATCH_BYTES = 16L * 1024 * 1024;
+    // A write capacity unit covers a write of up to 1KB
+    private static final long WRITE_UNIT_BYTES = 1024;
 
     public DynamoDBEmitter(KinesisConnectorConfiguration configuration) {
         // Amazon DynamoDB Config
         this.dynamoDBEndpoint = configuration.DYNAMODB_ENDPOINT;
         this.dynamoDBTableName = configuration.DYNAMODB_DATA_TABLE_NAME;
+        this.batchWriteConcurrency = Math.max(1, configuration.DYNAMODB_BATCH_WRITE_CONCURRENCY);
+        this.unprocessedRetryLimit = Math.max(0, configuration.DYNAMODB_UNPROCESSED_RETRY_LIMIT);
+        this.retryBaseBackoffMillis = configuration.DYNAMODB_RETRY_BASE_BACKOFF_MILLIS;
+        this.retryMaxBackoffMillis = configuration.DYNAMODB_RETRY_MAX_BACKOFF_MILLIS;
+        if (configuration.DYNAMODB_ADAPTIVE_RATE_LIMIT) {
+            this.rateLimiter =
+                    AdaptiveRateLimiter.forTable(dynamoDBEndpoint,
+                            dynamoDBTableName,
+                            configuration.DYNAMODB_INITIAL_WRITE_RATE,
+                            configuration.DYNAMODB_WRITE_RATE_INCREASE);
+        } else {
+            this.rateLimiter = null;
+        }
+        this.dedupeByKey = configuration.DYNAMODB_DEDUPE_BY_KEY;
         // Client
         this.dynamoDBClient = new AmazonDynamoDBClient(configuration.AWS_CREDENTIALS_PROVIDER);
         this.dynamoDBClient.setEndpoint(this.dynamoDBEndpoint);
@@ -62,34 +117,180 @@ public class DynamoDBEmitter implements IEmitter<Map<String, AttributeValue>> {
     @Override
     public List<Map<String, AttributeValue>> emit(final UnmodifiableBuffer<Map<String, AttributeValue>> buffer)
         throws IOException {
-        // Map of WriteRequests to records for reference
-        Map<WriteRequest, Map<String, AttributeValue>> requestMap =
-                new HashMap<WriteRequest, Map<String, AttributeValue>>();
+        if (batchWriteConcurrency > 1) {
+            return emitConcurrently(buffer);
+        }
         List<Map<String, AttributeValue>> unproc = new ArrayList<Map<String, AttributeValue>>();
         // Build a batch request with a record list
         List<WriteRequest> rList = new ArrayList<WriteRequest>();
         List<Map<String, AttributeValue>> resultList;
         // Amazon DynamoDB only allows one operation per item in a bulk insertion (no duplicate items)
-        Set<Map<String, AttributeValue>> uniqueItems = uniqueItems(buffer.getRecords());
-        for (Map<String, AttributeValue> item : uniqueItems) {
+        for (Map<String, AttributeValue> item : dedupe(buffer.getRecords())) {
+            // The request holds the record itself, so failed requests map straight back to records
             WriteRequest wr = new WriteRequest().withPutRequest(new PutRequest().withItem(item));
-            // add to the map
-            requestMap.put(wr, item);
             // add to the list of requests
             rList.add(wr);
             // Max of sixteen not to exceed maximum request size
             if (rList.size() == 16) {
-                resultList = performBatchRequest(rList, requestMap);
+                resultList = performBatchRequest(rList);
                 unproc.addAll(resultList);
                 rList.clear();
             }
         }
-        resultList = performBatchRequest(rList, requestMap);
+        resultList = performBatchRequest(rList);
         unproc.addAll(resultList);
         LOG.info("Successfully emitted " + (buffer.getRecords().size() - unproc.size()) + " records into DynamoDB.");
         return unproc;
     }
 
+    /**
+     * Packs the unique items of the buffer into batches by item count and estimated size and writes the batches
+     * concurrently.
+     */
+    private List<Map<String, AttributeValue>> emitConcurrently(UnmodifiableBuffer<Map<String, AttributeValue>> buffer)
+        throws IOException {
+        List<List<WriteRequest>> batches = new ArrayList<List<WriteRequest>>();
+        List<WriteRequest> rList = new ArrayList<WriteRequest>();
+        long batchBytes = 0;
+        for (Map<String, AttributeValue> item : dedupe(buffer.getRecords())) {
+            long itemBytes = estimateItemSize(item);
+            if (rList.size() == MAX_BATCH_ITEMS || (!rList.isEmpty() && batchBytes + itemBytes > MAX_BATCH_BYTES)) {
+                batches.add(rList);
+                rList = new ArrayList<WriteRequest>();
+                batchBytes = 0;
+            }
+            WriteRequest wr = new WriteRequest().withPutRequest(new PutRequest().withItem(item));
+            rList.add(wr);
+            batchBytes += itemBytes;
+        }
+        if (!rList.isEmpty()) {
+            batches.add(rList);
+        }
+
+        ExecutorService executor = getBatchWriteExecutor();
+        List<Future<List<Map<String, AttributeValue>>>> results =
+                new ArrayList<Future<List<Map<String, AttributeValue>>>>(batches.size());
+        for (final List<WriteRequest> batch : batches) {
+            results.add(executor.submit(new Callable<List<Map<String, AttributeValue>>>() {
+                @Override
+                public List<Map<String, AttributeValue>> call() throws IOException {
+                    return performBatchRequest(batch);
+                }
+            }));
+        }
+
+        List<Map<String, AttributeValue>> unproc = new ArrayList<Map<String, AttributeValue>>();
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                unproc.addAll(results.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted waiting for batch request", e);
+                addItems(batches.get(i), unproc);
+            } catch (ExecutionException e) {
+                // performBatchRequest has already logged the failure
+                addItems(batches.get(i), unproc);
+            }
+        }
+        LOG.info("Successfully emitted " + (buffer.getRecords().size() - unproc.size()) + " records into DynamoDB in "
+                + batches.size() + " batches.");
+        return unproc;
+    }
+
+    private static void addItems(List<WriteRequest> batch, List<Map<String, AttributeValue>> items) {
+        for (WriteRequest request : batch) {
+            items.add(request.getPutRequest().getItem());
+        }
+    }
+
+    protected synchronized ExecutorService getBatchWriteExecutor() {
+        if (batchWriteExecutor == null) {
+            batchWriteExecutor = Executors.newFixedThreadPool(batchWriteConcurrency);
+        }
+        return batchWriteExecutor;
+    }
+
+    /**
+     * Estimates the size of an item as Amazon DynamoDB counts it towards request limits: the UTF-8 length of each
+     * attribute name plus the size of its value.
+     * 
+     * @param item
+     *        the item to measure
+     * @return the estimated size in bytes
+     */
+    public static long estimateItemSize(Map<String, AttributeValue> item) {
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += utf8Length(attribute.getKey()) + estimateValueSize(attribute.getValue());
+        }
+        return size;
+    }
+
+    private static long estimateValueSize(AttributeValue value) {
+        if (value == null) {
+            return 0;
+        }
+        long size = 0;
+        if (value.getS() != null) {
+            size += utf8Length(value.getS());
+        }
+        if (value.getN() != null) {
+            // Numbers are stored in up to 21 bytes; their string form is a close upper bound
+            size += value.getN().length();
+        }
+        if (value.getB() != null) {
+            size += value.getB().remaining();
+        }
+        if (value.getSS() != null) {
+            for (String s : value.getSS()) {
+                size += utf8Length(s);
+            }
+        }
+        if (value.getNS() != null) {
+            for (String n : value.getNS()) {
+                size += n.length();
+            }
+        }
+        if (value.getBS() != null) {
+            for (ByteBuffer b : value.getBS()) {
+                size += b.remaining();
+            }
+        }
+        if (value.getM() != null) {
+            // 3 bytes of overhead per map, plus one per element
+            size += 3 + estimateItemSize(value.getM()) + value.getM().size();
+        }
+        if (value.getL() != null) {
+            size += 3 + value.getL().size();
+            for (AttributeValue element : value.getL()) {
+                size += estimateValueSize(element);
+            }
+        }
+        if (value.getBOOL() != null || value.getNULL() != null) {
+            size += 1;
+        }
+        return size;
+    }
+
+    private static int utf8Length(String s) {
+        // Count rather than encode to avoid copying every attribute
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
     @Override
     public void fail(List<Map<String, AttributeValue>> records) {
         for (Map<String, AttributeValue> record : records) {
@@ -99,51 +300,126 @@ public class DynamoDBEmitter implements IEmitter<Map<String, AttributeValue>> {
 
     /**
      * This method performs a batch request into Amazon DynamoDB and returns records that were
-     * unsuccessfully processed by the batch request. Throws IOException if the client calls to
-     * Amazon DynamoDB encounter an exception.
+     * unsuccessfully processed by the batch request. Unprocessed items are resent up to the
+     * unprocessed retry limit, with backoff, before being returned. Throws IOException if the client
+     * calls to Amazon DynamoDB encounter an exception.
      * 
      * @param rList
      *        list of WriteRequests to batch
-     * @param requestMap
-     *        map of WriteRequests to records
      * @return records that did not get put in the table by the batch request
      * @throws IOException
      *         if the Amazon DynamoDB client encounters an exception
      */
-    private List<Map<String, AttributeValue>> performBatchRequest(List<WriteRequest> rList,
-            Map<WriteRequest, Map<String, AttributeValue>> requestMap) throws IOException {
-        // Requests in the batch
-        Map<String, List<WriteRequest>> requestItems = new HashMap<String, List<WriteRequest>>();
-
+    private List<Map<String, AttributeValue>> performBatchRequest(List<WriteRequest> rList) throws IOException {
         if (rList.isEmpty()) {
             return Collections.emptyList();
         }
-        requestItems.put(dynamoDBTableName, rList);
-        BatchWriteItemResult result;
-        BatchWriteItemRequest batchWriteItemRequest = new BatchWriteItemRequest().withRequestItems(requestItems);
-        try {
-            result = dynamoDBClient.batchWriteItem(batchWriteItemRequest);
-            return unproccessedItems(result, requestMap);
-        } catch (AmazonClientException e) {
-            String message = "Amazon DynamoDB Client could not perform batch request";
-            LOG.error(message, e);
-            throw new IOException(message, e);
-        } catch (Exception e) {
-            String message = "Unexpected Exception while performing batch request";
-            LOG.error(message, e);
-            throw new IOException(message, e);
-        }
-    }
-
-    private List<Map<String, AttributeValue>> unproccessedItems(BatchWriteItemResult result,
-            Map<WriteRequest, Map<String, AttributeValue>> requestMap) {
+        List<WriteRequest> pending = rList;
+        for (int attempt = 0;; attempt++) {
+            // Requests in the batch
+            Map<String, List<WriteRequest>> requestItems = new HashMap<String, List<WriteRequest>>();
+            requestItems.put(dynamoDBTableName, pending);
+            BatchWriteItemRequest batchWriteItemRequest = new BatchWriteItemRequest().withRequestItems(requestItems);
+            double estimatedUnits = 0;
+            if (rateLimiter != null) {
+                batchWriteItemRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                estimatedUnits = estimateWriteUnits(pending);
+                try {
+                    rateLimiter.acquire(estimatedUnits);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return items(pending);
+                }
+            }
+            BatchWriteItemResult result;
+            long sentNanos = System.nanoTime();
+            try {
+                result = dynamoDBClient.batchWriteItem(batchWriteItemRequest);
+            } catch (AmazonClientException e) {
+                if (rateLimiter != null && e instanceof ProvisionedThroughputExceededException) {
+                    rateLimiter.onThrottle(sentNanos);
+                }
+                String message = "Amazon DynamoDB Client could not perform batch request";
+                LOG.error(message, e);
+                throw new IOException(message, e);
+            } catch (Exception e) {
+                String message = "Unexpected Exception while performing batch request";
+                LOG.error(message, e);
+                throw new IOException(message, e);
+            }
+
+            List<WriteRequest> unprocessed = result.getUnprocessedItems().get(dynamoDBTableName);
+            boolean throttled = unprocessed != null && !unprocessed.isEmpty();
+            if (rateLimiter != null) {
+                // Keep the estimate if the endpoint does not report consumed capacity
+                if (result.getConsumedCapacity() != null) {
+                    rateLimiter.adjust(estimatedUnits, consumedUnits(result));
+                }
+                if (throttled) {
+                    rateLimiter.onThrottle(sentNanos);
+                } else {
+                    rateLimiter.onSuccess();
+                }
+            }
+            if (!throttled || attempt >= unprocessedRetryLimit) {
+                return unproccessedItems(result);
+            }
+            try {
+                Thread.sleep(backoffMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return unproccessedItems(result);
+            }
+            pending = unprocessed;
+        }
+    }
+
+    /**
+     * @return a random backoff between zero and the base backoff doubled for each attempt, capped at the maximum, or
+     *         zero if the base backoff is zero
+     */
+    private long backoffMillis(int attempt) {
+        if (retryBaseBackoffMillis <= 0) {
+            return 0;
+        }
+        long ceiling = retryBaseBackoffMillis << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > retryMaxBackoffMillis) {
+            ceiling = retryMaxBackoffMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static double estimateWriteUnits(List<WriteRequest> requests) {
+        double units = 0;
+        for (WriteRequest request : requests) {
+            long size = estimateItemSize(request.getPutRequest().getItem());
+            units += Math.max(1, (size + WRITE_UNIT_BYTES - 1) / WRITE_UNIT_BYTES);
+        }
+        return units;
+    }
+
+    private static double consumedUnits(BatchWriteItemResult result) {
+        double units = 0;
+        for (ConsumedCapacity capacity : result.getConsumedCapacity()) {
+            if (capacity.getCapacityUnits() != null) {
+                units += capacity.getCapacityUnits();
+            }
+        }
+        return units;
+    }
+
+    private static List<Map<String, AttributeValue>> items(List<WriteRequest> requests) {
+        List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>(requests.size());
+        addItems(requests, items);
+        return items;
+    }
+
+    private List<Map<String, AttributeValue>> unproccessedItems(BatchWriteItemResult result) {
         Collection<List<WriteRequest>> items = result.getUnprocessedItems().values();
         List<Map<String, AttributeValue>> unprocessed = new ArrayList<Map<String, AttributeValue>>();
-        // retrieve the unprocessed items
+        // retrieve the unprocessed items, which the response carries in full
         for (List<WriteRequest> list : items) {
-            for (WriteRequest request : list) {
-                unprocessed.add(requestMap.get(request));
-            }
+            addItems(list, unprocessed);
         }
 
         return unprocessed;
@@ -161,8 +437,70 @@ public class DynamoDBEmitter implements IEmitter<Map<String, AttributeValue>> {
         return new HashSet<Map<String, AttributeValue>>(items);
     }
 
+    /**
+     * This helper method is used to dedupe a list of items by primary key. Only the last item for
+     * each key is kept, so the latest version of an item wins. Only the key attributes are hashed.
+     * 
+     * @param items
+     *        a list of Map<String,AttributeValue> items
+     * @param keyAttributeNames
+     *        the names of the table's hash and (if any) range key attributes
+     * @return the last item for each key, keyed by the values of its key attributes
+     */
+    public static Map<List<AttributeValue>, Map<String, AttributeValue>> uniqueItemsByKey(
+            List<Map<String, AttributeValue>> items, List<String> keyAttributeNames) {
+        Map<List<AttributeValue>, Map<String, AttributeValue>> unique =
+                new LinkedHashMap<List<AttributeValue>, Map<String, AttributeValue>>();
+        for (Map<String, AttributeValue> item : items) {
+            List<AttributeValue> key = new ArrayList<AttributeValue>(keyAttributeNames.size());
+            for (String name : keyAttributeNames) {
+                key.add(item.get(name));
+            }
+            // Remove first so the surviving item takes the position of the last write
+            unique.remove(key);
+            unique.put(key, item);
+        }
+        return unique;
+    }
+
+    private Collection<Map<String, AttributeValue>> dedupe(List<Map<String, AttributeValue>> items)
+        throws IOException {
+        if (!dedupeByKey) {
+            return uniqueItems(items);
+        }
+        return uniqueItemsByKey(items, getKeyAttributeNames()).values();
+    }
+
+    /**
+     * Reads the key schema of the table on first use.
+     */
+    protected List<String> getKeyAttributeNames() throws IOException {
+        List<String> names = keyAttributeNames;
+        if (names == null) {
+            try {
+                List<KeySchemaElement> keySchema =
+                        dynamoDBClient.describeTable(dynamoDBTableName).getTable().getKeySchema();
+                names = new ArrayList<String>(keySchema.size());
+                for (KeySchemaElement element : keySchema) {
+                    names.add(element.getAttributeName());
+                }
+            } catch (AmazonClientException e) {
+                String message = "Amazon DynamoDB Client could not describe table " + dynamoDBTableName;
+                LOG.error(message, e);
+                throw new IOException(message, e);
+            }
+            keyAttributeNames = names;
+        }
+        return names;
+    }
+
     @Override
     public void shutdown() {
+        synchronized (this) {
+            if (batchWriteExecutor != null) {
+                batchWriteExecutor.shutdownNow();
+            }
+        }
         dynamoDBClient.shutdown();
     }
 }
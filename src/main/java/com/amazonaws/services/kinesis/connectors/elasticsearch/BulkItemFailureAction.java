@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.elasticsearch;
+
+/**
+ * What an emitter does with a record that failed within a bulk request, decided by the HTTP status
+ * Elasticsearch reported for it.
+ */
+public enum BulkItemFailureAction {
+    /**
+     * 409 Conflict: the document already exists (create) or has a different version. The record
+     * would fail again, so it is dropped.
+     */
+    SKIP,
+
+    /**
+     * 429 Too Many Requests: the node's bulk queue was full. Only the rejected records are resent
+     * by the emitter after a backoff.
+     */
+    RESEND,
+
+    /**
+     * 400 Bad Request: the document cannot be indexed as it is, typically a mapping error. The
+     * record is handed to the DeadLetterSink.
+     */
+    DEAD_LETTER,
+
+    /**
+     * Any other status: the record is returned to the record processor to be retried.
+     */
+    RETRY;
+
+    public static BulkItemFailureAction forStatus(int status) {
+        switch (status) {
+            case 409:
+                return SKIP;
+            case 429:
+                return RESEND;
+            case 400:
+                return DEAD_LETTER;
+            default:
+                return RETRY;
+        }
+    }
+}
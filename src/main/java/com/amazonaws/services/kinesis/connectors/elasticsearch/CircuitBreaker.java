@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.elasticsearch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+
+/**
+ * A circuit breaker guarding requests to one Elasticsearch cluster, shared by every emitter in the
+ * JVM that writes to it, so all shards stop sending as soon as the cluster is known to be down.
+ * <ul>
+ * <li>CLOSED: requests flow. After failureThreshold consecutive failed requests the breaker opens.</li>
+ * <li>OPEN: requests fail fast without contacting the cluster. Once the open period has passed,
+ * the next request is let through as a probe and the breaker becomes HALF_OPEN.</li>
+ * <li>HALF_OPEN: only the probe is in flight; other requests fail fast. A successful probe closes
+ * the breaker. A failed probe reopens it for twice as long as before, up to maxOpenMillis.</li>
+ * </ul>
+ * Open periods are jittered by up to half their length so that shards sharing a cluster through
+ * different workers do not probe in lockstep. State changes are logged, and publishMetrics()
+ * reports the state and counters through an Amazon Kinesis Client Library IMetricsFactory, such as
+ * the one publishing the worker's metrics to Amazon CloudWatch.
+ */
+public class CircuitBreaker {
+    private static final Log LOG = LogFactory.getLog(CircuitBreaker.class);
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new HashMap<String, CircuitBreaker>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMillis;
+    private long openUntilMillis;
+    private long rejectedRequests;
+    private long timesOpened;
+    private long publishedRejectedRequests;
+    private long publishedTimesOpened;
+
+    CircuitBreaker(String name, int failureThreshold, long baseOpenMillis, long maxOpenMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenMillis = Math.max(1, baseOpenMillis);
+        this.maxOpenMillis = Math.max(this.baseOpenMillis, maxOpenMillis);
+        this.openMillis = this.baseOpenMillis;
+    }
+
+    /**
+     * Returns the breaker shared by all emitters writing to the given cluster endpoint, creating it
+     * with the given settings if needed.
+     *
+     * @param endpoint
+     * @param port
+     * @param failureThreshold
+     * @param baseOpenMillis
+     * @param maxOpenMillis
+     * @return
+     */
+    public static CircuitBreaker forEndpoint(String endpoint,
+            int port,
+            int failureThreshold,
+            long baseOpenMillis,
+            long maxOpenMillis) {
+        String name = endpoint + ":" + port;
+        synchronized (BREAKERS) {
+            CircuitBreaker breaker = BREAKERS.get(name);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(name, failureThreshold, baseOpenMillis, maxOpenMillis);
+                BREAKERS.put(name, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * @return true if a request may be sent now; every allowed request must be followed by a call
+     *         to onSuccess() or onFailure()
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (currentTimeMillis() >= openUntilMillis) {
+                    transition(State.HALF_OPEN);
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        rejectedRequests++;
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            openMillis = baseOpenMillis;
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMillis = Math.min(maxOpenMillis, openMillis * 2);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * @return how long to wait before a request may be allowed again: 0 if the breaker is closed,
+     *         the rest of the open period if it is open, and the base open period while a probe is
+     *         in flight
+     */
+    public synchronized long getMillisUntilRetry() {
+        switch (state) {
+            case OPEN:
+                return Math.max(0, openUntilMillis - currentTimeMillis());
+            case HALF_OPEN:
+                return baseOpenMillis;
+            default:
+                return 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the number of requests that failed fast because the breaker was open
+     */
+    public synchronized long getRejectedRequests() {
+        return rejectedRequests;
+    }
+
+    /**
+     * @return the number of times the breaker has opened
+     */
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+
+    /**
+     * Publishes the breaker's metrics, with an ElasticsearchEndpoint dimension naming the cluster:
+     * CircuitBreakerOpen (1 unless the breaker is closed), CircuitBreakerConsecutiveFailures, and
+     * CircuitBreakerRejectedRequests and CircuitBreakerOpened counting the requests failed fast
+     * and the times the breaker opened since the last call.
+     *
+     * @param metricsFactory
+     */
+    public void publishMetrics(IMetricsFactory metricsFactory) {
+        State currentState;
+        int failures;
+        long rejected;
+        long opened;
+        synchronized (this) {
+            currentState = state;
+            failures = consecutiveFailures;
+            rejected = rejectedRequests - publishedRejectedRequests;
+            opened = timesOpened - publishedTimesOpened;
+            publishedRejectedRequests = rejectedRequests;
+            publishedTimesOpened = timesOpened;
+        }
+        IMetricsScope scope = metricsFactory.createMetrics();
+        scope.addDimension("ElasticsearchEndpoint", name);
+        scope.addData("CircuitBreakerOpen", currentState == State.CLOSED ? 0 : 1, StandardUnit.Count);
+        scope.addData("CircuitBreakerConsecutiveFailures", failures, StandardUnit.Count);
+        scope.addData("CircuitBreakerRejectedRequests", rejected, StandardUnit.Count);
+        scope.addData("CircuitBreakerOpened", opened, StandardUnit.Count);
+        scope.end();
+    }
+
+    private void open() {
+        long jitter = ThreadLocalRandom.current().nextLong(openMillis / 2 + 1);
+        openUntilMillis = currentTimeMillis() + openMillis + jitter;
+        timesOpened++;
+        transition(State.OPEN);
+        LOG.warn("Circuit breaker for " + name + " opened after " + consecutiveFailures
+                + " consecutive failures; failing requests fast for " + (openMillis + jitter) + " milliseconds");
+    }
+
+    private void transition(State newState) {
+        if (state != newState) {
+            LOG.info("Circuit breaker for " + name + " changed from " + state + " to " + newState);
+            state = newState;
+        }
+    }
+
+    // This method has protected access for unit testing purposes.
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
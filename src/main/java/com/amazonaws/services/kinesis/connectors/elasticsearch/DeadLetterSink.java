@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.elasticsearch;
+
+/**
+ * Receives records that Elasticsearch rejected permanently, such as documents that do not match
+ * the index mapping, so they can be stored or inspected instead of being retried. It also receives
+ * the records the record processor gives up on after retryLimit failed emits, which would
+ * otherwise be dropped. Emitters may call a sink from several threads at once.
+ */
+public interface DeadLetterSink {
+
+    /**
+     * @param record
+     *        the rejected record
+     * @param status
+     *        the HTTP status Elasticsearch reported for the record, or 0 if the record is passed on
+     *        because its emits kept failing
+     * @param message
+     *        the failure message Elasticsearch reported for the record
+     */
+    void deadLetter(ElasticsearchObject record, int status, String message);
+}
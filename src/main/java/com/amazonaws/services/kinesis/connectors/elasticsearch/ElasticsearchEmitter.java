@@ -18,6 +18,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -38,6 +44,7 @@ import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
 
 public class ElasticsearchEmitter implements IEmitter<ElasticsearchObject> {
     private static final Log LOG = LogFactory.getLog(ElasticsearchEmitter.class);
@@ -97,10 +104,59 @@ public class ElasticsearchEmitter implements IEmitter<ElasticsearchObject> {
     private final int elasticsearchPort;
 
     /**
-     * The amount of time to wait in between unsuccessful index requests (in milliseconds).
-     * 10 seconds = 10 * 1000 = 10000
+     * The number of times a bulk request is sent before its records are returned as failed; 0 for no limit.
      */
-    private long BACKOFF_PERIOD = 10000;
+    private final int bulkMaxAttempts;
+
+    /**
+     * The backoff after the first unsuccessful bulk request (in milliseconds). It doubles with each further attempt, up
+     * to retryMaxBackoffMillis, and the actual wait is a random time up to that backoff.
+     */
+    private final long retryBaseBackoffMillis;
+
+    private final long retryMaxBackoffMillis;
+
+    /**
+     * The circuit breaker shared by all emitters writing to this cluster.
+     */
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * The number of times records rejected with 429 Too Many Requests are resent before they are returned as failed.
+     */
+    private final int rejectedResendLimit;
+
+    /**
+     * Receives records rejected with 400 Bad Request; if null they are logged and dropped.
+     */
+    private DeadLetterSink deadLetterSink;
+
+    /**
+     * Receives the circuit breaker's metrics; if null they are not published.
+     */
+    private IMetricsFactory metricsFactory;
+
+    /**
+     * Rough per-action overhead of the bulk request format, as counted by the Elasticsearch BulkProcessor.
+     */
+    private static final int BULK_ACTION_OVERHEAD_BYTES = 50;
+
+    /**
+     * The maximum number of actions in one bulk request.
+     */
+    private final int bulkMaxActions;
+
+    /**
+     * The maximum estimated size of one bulk request in bytes.
+     */
+    private final long bulkMaxBytes;
+
+    /**
+     * The maximum number of bulk requests in flight at once.
+     */
+    private final int bulkConcurrency;
+
+    private ExecutorService bulkExecutor;
 
     public ElasticsearchEmitter(KinesisConnectorConfiguration configuration) {
         Settings settings =
@@ -115,37 +171,79 @@ public class ElasticsearchEmitter implements IEmitter<ElasticsearchObject> {
                         .build();
         elasticsearchEndpoint = configuration.ELASTICSEARCH_ENDPOINT;
         elasticsearchPort = configuration.ELASTICSEARCH_PORT;
+        bulkMaxActions = Math.max(1, configuration.ELASTICSEARCH_BULK_MAX_ACTIONS);
+        bulkMaxBytes = configuration.ELASTICSEARCH_BULK_MAX_BYTES;
+        bulkConcurrency = Math.max(1, configuration.ELASTICSEARCH_BULK_CONCURRENCY);
+        bulkMaxAttempts = Math.max(0, configuration.ELASTICSEARCH_BULK_MAX_ATTEMPTS);
+        retryBaseBackoffMillis = configuration.ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS;
+        retryMaxBackoffMillis = configuration.ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS;
+        rejectedResendLimit = Math.max(0, configuration.ELASTICSEARCH_REJECTED_RESEND_LIMIT);
+        circuitBreaker =
+                CircuitBreaker.forEndpoint(elasticsearchEndpoint,
+                        elasticsearchPort,
+                        configuration.ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                        configuration.ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS,
+                        configuration.ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS);
         LOG.info("ElasticsearchEmitter using elasticsearch endpoint " + elasticsearchEndpoint + ":" + elasticsearchPort);
         elasticsearchClient = new TransportClient(settings);
         elasticsearchClient.addTransportAddress(new InetSocketTransportAddress(elasticsearchEndpoint, elasticsearchPort));
     }
 
+    /**
+     * Sets the sink that receives records Elasticsearch rejects permanently.
+     * 
+     * @param deadLetterSink
+     * @return
+     */
+    public ElasticsearchEmitter withDeadLetterSink(DeadLetterSink deadLetterSink) {
+        this.deadLetterSink = deadLetterSink;
+        return this;
+    }
+
+    /**
+     * Sets the metrics factory the circuit breaker's state and counters are published to after each emit and while
+     * the breaker holds requests back.
+     * 
+     * @param metricsFactory
+     * @return
+     */
+    public ElasticsearchEmitter withMetricsFactory(IMetricsFactory metricsFactory) {
+        this.metricsFactory = metricsFactory;
+        return this;
+    }
+
     /**
      * Emits records to elasticsearch.
      * 1. Adds each record to a bulk index request, conditionally adding version, ttl or create if they were set in the
-     * transformer.
-     * 2. Executes the bulk request, returning any record specific failures to be retried by the connector library
-     * pipeline, unless
+     * transformer. A new bulk request is started whenever the current one reaches elasticsearchBulkMaxActions actions
+     * or elasticsearchBulkMaxBytes bytes.
+     * 2. Executes the bulk requests, up to elasticsearchBulkConcurrency at once, returning any record specific failures
+     * from all of them to be retried by the connector library pipeline, unless
      * outlined below.
      * 
-     * Record specific failures (noted in the failure.getMessage() string)
-     * - DocumentAlreadyExistsException means the record has create set to true, but a document already existed at the
-     * specific index/type/id.
-     * - VersionConflictEngineException means the record has a specific version number that did not match what existed
-     * in elasticsearch.
+     * Record specific failures are handled by their status, see BulkItemFailureAction
+     * - 409 Conflict means the record has create set to true, but a document already existed at the specific
+     * index/type/id, or the record has a specific version number that did not match what existed in elasticsearch.
      * To guarantee in order processing by the connector, when putting data use the same partition key for objects going
      * to the same
      * index/type/id and set sequence number for ordering.
-     * - In either case, the emitter will assume that the record would fail again in the future and thus will not return
-     * the record to
-     * be retried.
+     * The emitter assumes that the record would fail again in the future and thus will not return the record to be
+     * retried.
+     * - 429 Too Many Requests means the node rejected the record because its bulk queue was full. Only the rejected
+     * records are sent again in a new bulk request after a backoff, up to elasticsearchRejectedResendLimit times, and
+     * then returned to be retried.
+     * - 400 Bad Request means the record cannot be indexed, for example because it does not match the mapping. The
+     * record is passed to the DeadLetterSink instead of being retried.
      * 
      * Bulk request failures
      * - NoNodeAvailableException means the TransportClient could not connect to the cluster.
      * - A general Exception catches any other unexpected behavior.
-     * - In either case the emitter will continue making attempts until the issue has been resolved. This is to ensure
-     * that no data
-     * loss occurs and simplifies restarting the application once issues have been fixed.
+     * - In either case the emitter retries the bulk request with exponential backoff and jitter. By default it
+     * retries until the request gets a response, holding the shard rather than losing records during an outage. If
+     * elasticsearchBulkMaxAttempts is set, the records are returned as failed after that many attempts; records the
+     * record processor then gives up on are passed to the DeadLetterSink by fail().
+     * - Failed bulk requests also feed a CircuitBreaker shared by every emitter writing to the cluster. While it is
+     * open, bulk requests wait for it instead of being sent, and the wait does not count as an attempt.
      */
     @Override
     public List<ElasticsearchObject> emit(UnmodifiableBuffer<ElasticsearchObject> buffer) throws IOException {
@@ -154,73 +252,269 @@ public class ElasticsearchEmitter implements IEmitter<ElasticsearchObject> {
             return Collections.emptyList();
         }
 
-        BulkRequestBuilder bulkRequest = elasticsearchClient.prepareBulk();
+        List<Bulk> bulks = new ArrayList<Bulk>();
+        Bulk bulk = null;
         for (ElasticsearchObject record : records) {
-            IndexRequestBuilder indexRequestBuilder =
-                    elasticsearchClient.prepareIndex(record.getIndex(), record.getType(), record.getId());
-            indexRequestBuilder.setSource(record.getSource());
-            Long version = record.getVersion();
-            if (version != null) {
-                indexRequestBuilder.setVersion(version);
+            IndexRequestBuilder indexRequestBuilder = prepareIndexRequest(record);
+            long bytes = indexRequestBuilder.request().source().length() + BULK_ACTION_OVERHEAD_BYTES;
+            if (bulk == null || bulk.records.size() >= bulkMaxActions
+                    || (!bulk.records.isEmpty() && bulk.bytes + bytes > bulkMaxBytes)) {
+                bulk = new Bulk(elasticsearchClient.prepareBulk());
+                bulks.add(bulk);
             }
-            Long ttl = record.getTtl();
-            if (ttl != null) {
-                indexRequestBuilder.setTTL(ttl);
+            bulk.request.add(indexRequestBuilder);
+            bulk.records.add(record);
+            bulk.bytes += bytes;
+        }
+
+        List<ElasticsearchObject> failures = new ArrayList<ElasticsearchObject>();
+        int numberOfSkippedRecords = 0;
+        if (bulks.size() == 1 || bulkConcurrency == 1) {
+            for (Bulk b : bulks) {
+                numberOfSkippedRecords += executeBulk(b, failures);
+            }
+        } else {
+            ExecutorService executor = getBulkExecutor();
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>(bulks.size());
+            final List<List<ElasticsearchObject>> bulkFailures = new ArrayList<List<ElasticsearchObject>>(bulks.size());
+            for (final Bulk b : bulks) {
+                final List<ElasticsearchObject> f = new ArrayList<ElasticsearchObject>();
+                bulkFailures.add(f);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return executeBulk(b, f);
+                    }
+                }));
             }
-            Boolean create = record.getCreate();
-            if (create != null) {
-                indexRequestBuilder.setCreate(create);
+            for (int i = 0; i < bulks.size(); i++) {
+                try {
+                    numberOfSkippedRecords += results.get(i).get();
+                    failures.addAll(bulkFailures.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Interrupted waiting for bulk request", e);
+                    failures.addAll(bulks.get(i).records);
+                } catch (ExecutionException e) {
+                    LOG.error("ElasticsearchEmitter threw an unexpected exception ", e.getCause());
+                    failures.addAll(bulks.get(i).records);
+                }
             }
-            bulkRequest.add(indexRequestBuilder);
         }
 
-        while (true) {
-            try {
-                BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-
-                BulkItemResponse[] responses = bulkResponse.getItems();
-                List<ElasticsearchObject> failures = new ArrayList<ElasticsearchObject>();
-                int numberOfSkippedRecords = 0;
-                for (int i = 0; i < responses.length; i++) {
-                    if (responses[i].isFailed()) {
-                        LOG.error("Record failed with message: " + responses[i].getFailureMessage());
-                        Failure failure = responses[i].getFailure();
-                        if (failure.getMessage().contains("DocumentAlreadyExistsException")
-                                || failure.getMessage().contains("VersionConflictEngineException")) {
-                            numberOfSkippedRecords++;
+        LOG.info("Emitted " + (records.size() - failures.size() - numberOfSkippedRecords) + " records to Elasticsearch in "
+                + bulks.size() + " bulk requests");
+        if (!failures.isEmpty()) {
+            // Asking an unreachable cluster for its health would only fail again
+            if (circuitBreaker.getState() == CircuitBreaker.State.CLOSED) {
+                printClusterStatus();
+            }
+            LOG.warn("Returning " + failures.size() + " records as failed");
+        }
+        publishMetrics();
+        return failures;
+    }
+
+    private IndexRequestBuilder prepareIndexRequest(ElasticsearchObject record) {
+        IndexRequestBuilder indexRequestBuilder =
+                elasticsearchClient.prepareIndex(record.getIndex(), record.getType(), record.getId());
+        if (record.hasSourceBytes()) {
+            indexRequestBuilder.setSource(record.getSourceBytes(), record.getSourceOffset(), record.getSourceLength());
+        } else {
+            indexRequestBuilder.setSource(record.getSource());
+        }
+        Long version = record.getVersion();
+        if (version != null) {
+            indexRequestBuilder.setVersion(version);
+        }
+        Long ttl = record.getTtl();
+        if (ttl != null) {
+            indexRequestBuilder.setTTL(ttl);
+        }
+        Boolean create = record.getCreate();
+        if (create != null) {
+            indexRequestBuilder.setCreate(create);
+        }
+        return indexRequestBuilder;
+    }
+
+    /**
+     * Executes one bulk request, resending the records the cluster rejected as too many requests, and adds the records
+     * that failed and should be retried to failures.
+     * 
+     * @return the number of failed records that were skipped or dead-lettered rather than retried
+     */
+    private int executeBulk(Bulk bulk, List<ElasticsearchObject> failures) {
+        int numberOfSkippedRecords = 0;
+        for (int resends = 0;; resends++) {
+            BulkResponse bulkResponse = sendBulk(bulk);
+            if (bulkResponse == null) {
+                failures.addAll(bulk.records);
+                return numberOfSkippedRecords;
+            }
+
+            Bulk rejected = null;
+            BulkItemResponse[] responses = bulkResponse.getItems();
+            for (int i = 0; i < responses.length; i++) {
+                if (!responses[i].isFailed()) {
+                    continue;
+                }
+                ElasticsearchObject record = bulk.records.get(i);
+                Failure failure = responses[i].getFailure();
+                int status = failure.getStatus().getStatus();
+                switch (BulkItemFailureAction.forStatus(status)) {
+                    case SKIP:
+                        LOG.error("Record failed with message: " + failure.getMessage());
+                        numberOfSkippedRecords++;
+                        break;
+                    case DEAD_LETTER:
+                        deadLetter(record, status, failure.getMessage());
+                        numberOfSkippedRecords++;
+                        break;
+                    case RESEND:
+                        if (resends < rejectedResendLimit) {
+                            if (rejected == null) {
+                                rejected = new Bulk(elasticsearchClient.prepareBulk());
+                            }
+                            rejected.request.add(prepareIndexRequest(record));
+                            rejected.records.add(record);
                         } else {
-                            failures.add(records.get(i));
+                            failures.add(record);
                         }
-                    }
-                }
-                LOG.info("Emitted " + (records.size() - failures.size() - numberOfSkippedRecords)
-                        + " records to Elasticsearch");
-                if (!failures.isEmpty()) {
-                    printClusterStatus();
-                    LOG.warn("Returning " + failures.size() + " records as failed");
+                        break;
+                    default:
+                        LOG.error("Record failed with message: " + failure.getMessage());
+                        failures.add(record);
+                        break;
                 }
-                return failures;
+            }
+            if (rejected == null) {
+                return numberOfSkippedRecords;
+            }
+            LOG.warn("Elasticsearch rejected " + rejected.records.size() + " records as too many requests. Resending");
+            sleep(backoffMillis(resends + 1));
+            bulk = rejected;
+        }
+    }
+
+    private void deadLetter(ElasticsearchObject record, int status, String message) {
+        if (deadLetterSink == null) {
+            LOG.error("Record rejected with status " + status + " and message: " + message + ". Dropping record: "
+                    + record);
+            return;
+        }
+        try {
+            deadLetterSink.deadLetter(record, status, message);
+        } catch (RuntimeException e) {
+            LOG.error("Dead letter sink threw an exception. Dropping record: " + record, e);
+        }
+    }
+
+    /**
+     * Sends one bulk request until it gets a response, with exponential backoff between attempts, waiting while the
+     * circuit breaker is open.
+     * 
+     * @return the response, or null if elasticsearchBulkMaxAttempts attempts failed
+     */
+    private BulkResponse sendBulk(Bulk bulk) {
+        for (int attempt = 1;; attempt++) {
+            while (!circuitBreaker.allowRequest()) {
+                long wait = Math.max(1, circuitBreaker.getMillisUntilRetry());
+                LOG.warn("Circuit breaker for " + elasticsearchEndpoint + ":" + elasticsearchPort + " is "
+                        + circuitBreaker.getState() + ". Holding " + bulk.records.size() + " records for " + wait
+                        + " milliseconds");
+                publishMetrics();
+                sleep(wait);
+            }
+            try {
+                BulkResponse bulkResponse = bulk.request.execute().actionGet();
+                circuitBreaker.onSuccess();
+                return bulkResponse;
             } catch (NoNodeAvailableException nnae) {
-                LOG.error("No nodes found at " + elasticsearchEndpoint + ":" + elasticsearchPort + ". Retrying in "
-                        + BACKOFF_PERIOD + " milliseconds", nnae);
-                sleep(BACKOFF_PERIOD);
+                circuitBreaker.onFailure();
+                LOG.error("No nodes found at " + elasticsearchEndpoint + ":" + elasticsearchPort + " on attempt "
+                        + attempt, nnae);
             } catch (Exception e) {
-                LOG.error("ElasticsearchEmitter threw an unexpected exception ", e);
-                sleep(BACKOFF_PERIOD);
+                circuitBreaker.onFailure();
+                LOG.error("ElasticsearchEmitter threw an unexpected exception on attempt " + attempt, e);
+            }
+            if (bulkMaxAttempts > 0 && attempt >= bulkMaxAttempts) {
+                LOG.warn("Bulk request failed " + attempt + " times. Returning " + bulk.records.size()
+                        + " records as failed");
+                return null;
             }
+            sleep(backoffMillis(attempt));
         }
+    }
+
+    private void publishMetrics() {
+        if (metricsFactory == null) {
+            return;
+        }
+        try {
+            circuitBreaker.publishMetrics(metricsFactory);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not publish circuit breaker metrics", e);
+        }
+    }
+
+    /**
+     * @return a random backoff between zero and the base backoff doubled for each previous attempt, capped at the
+     *         maximum, or zero if the base backoff is zero
+     */
+    private long backoffMillis(int attempt) {
+        if (retryBaseBackoffMillis <= 0) {
+            return 0;
+        }
+        long ceiling = retryBaseBackoffMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > retryMaxBackoffMillis) {
+            ceiling = retryMaxBackoffMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newFixedThreadPool(bulkConcurrency);
+        }
+        return bulkExecutor;
+    }
 
+    /**
+     * One bulk request and the records in it, in request order.
+     */
+    private static class Bulk {
+        private final BulkRequestBuilder request;
+        private final List<ElasticsearchObject> records = new ArrayList<ElasticsearchObject>();
+        private long bytes;
+
+        private Bulk(BulkRequestBuilder request) {
+            this.request = request;
+        }
     }
 
+    /**
+     * Passes the records the record processor gave up on to the DeadLetterSink, with status 0, or logs them if there
+     * is none.
+     */
     @Override
     public void fail(List<ElasticsearchObject> records) {
         for (ElasticsearchObject record : records) {
-            LOG.error("Record failed: " + record);
+            if (deadLetterSink == null) {
+                LOG.error("Record failed: " + record);
+            } else {
+                deadLetter(record, 0, "Emit failed after retries");
+            }
         }
     }
 
     @Override
     public void shutdown() {
+        synchronized (this) {
+            if (bulkExecutor != null) {
+                bulkExecutor.shutdownNow();
+            }
+        }
         elasticsearchClient.close();
     }
 
@@ -233,7 +527,13 @@ public class ElasticsearchEmitter implements IEmitter<ElasticsearchObject> {
 
     private void printClusterStatus() {
         ClusterHealthRequestBuilder healthRequestBuilder = elasticsearchClient.admin().cluster().prepareHealth();
-        ClusterHealthResponse response = healthRequestBuilder.execute().actionGet();
+        ClusterHealthResponse response;
+        try {
+            response = healthRequestBuilder.execute().actionGet();
+        } catch (Exception e) {
+            LOG.warn("Could not get cluster health from " + elasticsearchEndpoint + ":" + elasticsearchPort, e);
+            return;
+        }
         if (response.getStatus().equals(ClusterHealthStatus.RED)) {
             LOG.error("Cluster health is RED. Indexing ability will be limited");
         } else if (response.getStatus().equals(ClusterHealthStatus.YELLOW)) {
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.elasticsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.NonClosingOutputStream;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An alternative to ElasticsearchEmitter that sends records to the _bulk REST endpoint over HTTP
+ * (elasticsearchEndpoint:elasticsearchHttpPort) instead of through a TransportClient. All
+ * instances in the JVM share one pooled, keep-alive HTTP client of up to
+ * elasticsearchHttpMaxConnections connections, so starting an emitter for a shard costs nothing
+ * and many shards share a few connections.
+ * <p>
+ * Bulk bodies are streamed as newline delimited JSON straight from the records' sources, which
+ * are copied without decoding when held as bytes, gzip
+ * compressed when elasticsearchHttpGzip is set. Records are split into bulk requests, sent up to
+ * elasticsearchBulkConcurrency at once over the shared connections, retried,
+ * guarded by the shared CircuitBreaker and classified by status (see BulkItemFailureAction)
+ * with the same settings as ElasticsearchEmitter. As there, bulk requests wait while the breaker
+ * is open and by default are retried until they get a response, and fail() passes the records
+ * the record processor gives up on to the DeadLetterSink.
+ */
+public class ElasticsearchHttpEmitter implements IEmitter<ElasticsearchObject> {
+    private static final Log LOG = LogFactory.getLog(ElasticsearchHttpEmitter.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory();
+
+    /**
+     * Rough per-action overhead of the bulk request format.
+     */
+    private static final int BULK_ACTION_OVERHEAD_BYTES = 50;
+
+    private static CloseableHttpClient sharedClient;
+    private static int clientReferences;
+
+    private final CloseableHttpClient httpClient;
+    private final String bulkUrl;
+    private final boolean gzip;
+    private final int bulkMaxActions;
+    private final long bulkMaxBytes;
+    private final int bulkConcurrency;
+    private final int bulkMaxAttempts;
+    private final long retryBaseBackoffMillis;
+    private final long retryMaxBackoffMillis;
+    private final int rejectedResendLimit;
+    private final CircuitBreaker circuitBreaker;
+    private DeadLetterSink deadLetterSink;
+    private IMetricsFactory metricsFactory;
+    private ExecutorService bulkExecutor;
+
+    public ElasticsearchHttpEmitter(KinesisConnectorConfiguration configuration) {
+        String endpoint = configuration.ELASTICSEARCH_ENDPOINT;
+        int port = configuration.ELASTICSEARCH_HTTP_PORT;
+        bulkUrl = "http://" + endpoint + ":" + port + "/_bulk";
+        gzip = configuration.ELASTICSEARCH_HTTP_GZIP;
+        bulkMaxActions = Math.max(1, configuration.ELASTICSEARCH_BULK_MAX_ACTIONS);
+        bulkMaxBytes = configuration.ELASTICSEARCH_BULK_MAX_BYTES;
+        bulkConcurrency = Math.max(1, configuration.ELASTICSEARCH_BULK_CONCURRENCY);
+        bulkMaxAttempts = Math.max(0, configuration.ELASTICSEARCH_BULK_MAX_ATTEMPTS);
+        retryBaseBackoffMillis = configuration.ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS;
+        retryMaxBackoffMillis = configuration.ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS;
+        rejectedResendLimit = Math.max(0, configuration.ELASTICSEARCH_REJECTED_RESEND_LIMIT);
+        circuitBreaker =
+                CircuitBreaker.forEndpoint(endpoint,
+                        port,
+                        configuration.ELASTICSEARCH_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                        configuration.ELASTICSEARCH_CIRCUIT_BREAKER_OPEN_MILLIS,
+                        configuration.ELASTICSEARCH_CIRCUIT_BREAKER_MAX_OPEN_MILLIS);
+        httpClient = acquireClient(configuration.ELASTICSEARCH_HTTP_MAX_CONNECTIONS);
+        LOG.info("ElasticsearchHttpEmitter using elasticsearch endpoint " + bulkUrl);
+    }
+
+    /**
+     * Sets the sink that receives records Elasticsearch rejects permanently.
+     *
+     * @param deadLetterSink
+     * @return
+     */
+    public ElasticsearchHttpEmitter withDeadLetterSink(DeadLetterSink deadLetterSink) {
+        this.deadLetterSink = deadLetterSink;
+        return this;
+    }
+
+    /**
+     * Sets the metrics factory the circuit breaker's state and counters are published to after each
+     * emit and while the breaker holds requests back.
+     *
+     * @param metricsFactory
+     * @return
+     */
+    public ElasticsearchHttpEmitter withMetricsFactory(IMetricsFactory metricsFactory) {
+        this.metricsFactory = metricsFactory;
+        return this;
+    }
+
+    @Override
+    public List<ElasticsearchObject> emit(UnmodifiableBuffer<ElasticsearchObject> buffer) throws IOException {
+        List<ElasticsearchObject> records = buffer.getRecords();
+        if (records.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<List<ElasticsearchObject>> bulks = new ArrayList<List<ElasticsearchObject>>();
+        List<ElasticsearchObject> bulk = null;
+        long bytes = 0;
+        for (ElasticsearchObject record : records) {
+            long recordBytes = record.getSourceSize() + BULK_ACTION_OVERHEAD_BYTES;
+            if (bulk == null || bulk.size() >= bulkMaxActions || (!bulk.isEmpty() && bytes + recordBytes > bulkMaxBytes)) {
+                bulk = new ArrayList<ElasticsearchObject>();
+                bulks.add(bulk);
+                bytes = 0;
+            }
+            bulk.add(record);
+            bytes += recordBytes;
+        }
+
+        List<ElasticsearchObject> failures = new ArrayList<ElasticsearchObject>();
+        int numberOfSkippedRecords = 0;
+        if (bulks.size() == 1 || bulkConcurrency == 1) {
+            for (List<ElasticsearchObject> b : bulks) {
+                numberOfSkippedRecords += executeBulk(b, failures);
+            }
+        } else {
+            ExecutorService executor = getBulkExecutor();
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>(bulks.size());
+            List<List<ElasticsearchObject>> bulkFailures = new ArrayList<List<ElasticsearchObject>>(bulks.size());
+            for (final List<ElasticsearchObject> b : bulks) {
+                final List<ElasticsearchObject> f = new ArrayList<ElasticsearchObject>();
+                bulkFailures.add(f);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return executeBulk(b, f);
+                    }
+                }));
+            }
+            for (int i = 0; i < bulks.size(); i++) {
+                try {
+                    numberOfSkippedRecords += results.get(i).get();
+                    failures.addAll(bulkFailures.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Interrupted waiting for bulk request", e);
+                    failures.addAll(bulks.get(i));
+                } catch (ExecutionException e) {
+                    LOG.error("ElasticsearchHttpEmitter threw an unexpected exception ", e.getCause());
+                    failures.addAll(bulks.get(i));
+                }
+            }
+        }
+
+        LOG.info("Emitted " + (records.size() - failures.size() - numberOfSkippedRecords) + " records to Elasticsearch in "
+                + bulks.size() + " bulk requests");
+        if (!failures.isEmpty()) {
+            LOG.warn("Returning " + failures.size() + " records as failed");
+        }
+        publishMetrics();
+        return failures;
+    }
+
+    /**
+     * Executes one bulk request, resending the records the cluster rejected as too many requests, and adds the records
+     * that failed and should be retried to failures.
+     *
+     * @return the number of failed records that were skipped or dead-lettered rather than retried
+     */
+    private int executeBulk(List<ElasticsearchObject> bulk, List<ElasticsearchObject> failures) {
+        int numberOfSkippedRecords = 0;
+        for (int resends = 0;; resends++) {
+            JsonNode response = sendBulk(bulk);
+            if (response == null) {
+                failures.addAll(bulk);
+                return numberOfSkippedRecords;
+            }
+            if (!response.path("errors").asBoolean(true)) {
+                return numberOfSkippedRecords;
+            }
+
+            List<ElasticsearchObject> rejected = new ArrayList<ElasticsearchObject>();
+            Iterator<JsonNode> items = response.path("items").elements();
+            for (ElasticsearchObject record : bulk) {
+                // Each item is an object with a single field named after the action
+                JsonNode item = items.hasNext() ? items.next().elements().next() : null;
+                if (item == null) {
+                    failures.add(record);
+                    continue;
+                }
+                int status = item.path("status").asInt();
+                if (status >= HttpStatus.SC_OK && status < HttpStatus.SC_MULTIPLE_CHOICES) {
+                    continue;
+                }
+                // Elasticsearch 2.x and later report the error as an object with a type and reason
+                JsonNode error = item.path("error");
+                String message = error.isContainerNode() ? error.toString() : error.asText();
+                switch (BulkItemFailureAction.forStatus(status)) {
+                    case SKIP:
+                        LOG.error("Record failed with message: " + message);
+                        numberOfSkippedRecords++;
+                        break;
+                    case DEAD_LETTER:
+                        deadLetter(record, status, message);
+                        numberOfSkippedRecords++;
+                        break;
+                    case RESEND:
+                        if (resends < rejectedResendLimit) {
+                            rejected.add(record);
+                        } else {
+                            failures.add(record);
+                        }
+                        break;
+                    default:
+                        LOG.error("Record failed with message: " + message);
+                        failures.add(record);
+                        break;
+                }
+            }
+            if (rejected.isEmpty()) {
+                return numberOfSkippedRecords;
+            }
+            LOG.warn("Elasticsearch rejected " + rejected.size() + " records as too many requests. Resending");
+            sleep(backoffMillis(resends + 1));
+            bulk = rejected;
+        }
+    }
+
+    /**
+     * Posts one bulk request until it gets a successful response, with exponential backoff between attempts, waiting
+     * while the circuit breaker is open.
+     *
+     * @return the parsed response, or null if elasticsearchBulkMaxAttempts attempts failed
+     */
+    private JsonNode sendBulk(List<ElasticsearchObject> bulk) {
+        HttpPost post = new HttpPost(bulkUrl);
+        post.setEntity(new BulkEntity(bulk, gzip));
+        for (int attempt = 1;; attempt++) {
+            while (!circuitBreaker.allowRequest()) {
+                long wait = Math.max(1, circuitBreaker.getMillisUntilRetry());
+                LOG.warn("Circuit breaker for " + bulkUrl + " is " + circuitBreaker.getState() + ". Holding "
+                        + bulk.size() + " records for " + wait + " milliseconds");
+                publishMetrics();
+                sleep(wait);
+            }
+            try (CloseableHttpResponse response = httpClient.execute(post)) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_OK) {
+                    JsonNode result;
+                    try (InputStream in = response.getEntity().getContent()) {
+                        result = MAPPER.readTree(in);
+                    }
+                    circuitBreaker.onSuccess();
+                    return result;
+                }
+                String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+                circuitBreaker.onFailure();
+                LOG.error("Bulk request to " + bulkUrl + " failed with status " + status + " on attempt " + attempt
+                        + ": " + body);
+            } catch (IOException e) {
+                circuitBreaker.onFailure();
+                LOG.error("Bulk request to " + bulkUrl + " failed on attempt " + attempt, e);
+            }
+            if (bulkMaxAttempts > 0 && attempt >= bulkMaxAttempts) {
+                LOG.warn("Bulk request failed " + attempt + " times. Returning " + bulk.size() + " records as failed");
+                return null;
+            }
+            sleep(backoffMillis(attempt));
+        }
+    }
+
+    private void deadLetter(ElasticsearchObject record, int status, String message) {
+        if (deadLetterSink == null) {
+            LOG.error("Record rejected with status " + status + " and message: " + message + ". Dropping record: "
+                    + record);
+            return;
+        }
+        try {
+            deadLetterSink.deadLetter(record, status, message);
+        } catch (RuntimeException e) {
+            LOG.error("Dead letter sink threw an exception. Dropping record: " + record, e);
+        }
+    }
+
+    private void publishMetrics() {
+        if (metricsFactory == null) {
+            return;
+        }
+        try {
+            circuitBreaker.publishMetrics(metricsFactory);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not publish circuit breaker metrics", e);
+        }
+    }
+
+    /**
+     * @return a random backoff between zero and the base backoff doubled for each previous attempt, capped at the
+     *         maximum, or zero if the base backoff is zero
+     */
+    private long backoffMillis(int attempt) {
+        if (retryBaseBackoffMillis <= 0) {
+            return 0;
+        }
+        long ceiling = retryBaseBackoffMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > retryMaxBackoffMillis) {
+            ceiling = retryMaxBackoffMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Passes the records the record processor gave up on to the DeadLetterSink, with status 0, or
+     * logs them if there is none.
+     */
+    @Override
+    public void fail(List<ElasticsearchObject> records) {
+        for (ElasticsearchObject record : records) {
+            if (deadLetterSink == null) {
+                LOG.error("Record failed: " + record);
+            } else {
+                deadLetter(record, 0, "Emit failed after retries");
+            }
+        }
+    }
+
+    private synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newFixedThreadPool(bulkConcurrency);
+        }
+        return bulkExecutor;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (bulkExecutor != null) {
+                bulkExecutor.shutdownNow();
+            }
+        }
+        releaseClient();
+    }
+
+    private void sleep(long sleepTime) {
+        try {
+            Thread.sleep(sleepTime);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private static synchronized CloseableHttpClient acquireClient(int maxConnections) {
+        if (sharedClient == null) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(Math.max(1, maxConnections));
+            connectionManager.setDefaultMaxPerRoute(Math.max(1, maxConnections));
+            sharedClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+        }
+        clientReferences++;
+        return sharedClient;
+    }
+
+    private static synchronized void releaseClient() {
+        if (--clientReferences > 0) {
+            return;
+        }
+        try {
+            sharedClient.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the Elasticsearch HTTP client", e);
+        }
+        sharedClient = null;
+    }
+
+    /**
+     * A bulk request body, written as newline delimited JSON when it is sent so the whole body is never held in
+     * memory. It can be written again for retries.
+     */
+    private static class BulkEntity extends AbstractHttpEntity {
+        private final List<ElasticsearchObject> records;
+        private final boolean gzip;
+
+        private BulkEntity(List<ElasticsearchObject> records, boolean gzip) {
+            this.records = records;
+            this.gzip = gzip;
+            setContentType("application/json; charset=UTF-8");
+            setChunked(true);
+            if (gzip) {
+                setContentEncoding("gzip");
+            }
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeTo(out);
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            // Closing the gzip stream ends its Deflater; the connection's stream is left open
+            OutputStream target = gzip ? new GZIPOutputStream(new NonClosingOutputStream(out), 8192) : out;
+            try {
+                writeRecords(target);
+            } finally {
+                if (target != out) {
+                    target.close();
+                }
+            }
+        }
+
+        private void writeRecords(OutputStream target) throws IOException {
+            JsonGenerator generator = JSON_FACTORY.createGenerator(target, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            for (ElasticsearchObject record : records) {
+                generator.writeStartObject();
+                generator.writeObjectFieldStart(Boolean.TRUE.equals(record.getCreate()) ? "create" : "index");
+                generator.writeStringField("_index", record.getIndex());
+                generator.writeStringField("_type", record.getType());
+                if (record.getId() != null) {
+                    generator.writeStringField("_id", record.getId());
+                }
+                if (record.getVersion() != null) {
+                    generator.writeNumberField("_version", record.getVersion());
+                }
+                if (record.getTtl() != null) {
+                    generator.writeNumberField("_ttl", record.getTtl());
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                if (record.hasSourceBytes()) {
+                    generator.flush();
+                    target.write(record.getSourceBytes(), record.getSourceOffset(), record.getSourceLength());
+                } else {
+                    generator.writeRaw(record.getSource());
+                }
+                generator.writeRaw('\n');
+            }
+            generator.close();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
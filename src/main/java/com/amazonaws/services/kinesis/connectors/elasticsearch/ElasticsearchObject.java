@@ -14,6 +14,9 @@
  */
 package com.amazonaws.services.kinesis.connectors.elasticsearch;
 
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -22,8 +25,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * to properly index the record. It is to be instantiated by the ElasticsearchTransformer
  * as the final output. Information should be passed in via the constructor
  * during the fromClass transformation.
+ * 
+ * The source document can be given either as a String or as UTF-8 encoded bytes, for example a slice of the Amazon
+ * Kinesis record it was read from. Bytes are passed to Elasticsearch as they are, without being decoded or copied.
  */
 public class ElasticsearchObject {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     /**
      * The index name within Elasticsearch to store the source document.
@@ -37,9 +44,18 @@ public class ElasticsearchObject {
 
     /**
      * The JSON document to store in Elasticsearch.
+     * If null, the document is held in sourceBytes and only decoded if getSource() is called.
      */
     private String source;
 
+    /**
+     * The UTF-8 encoded JSON document, from sourceOffset for sourceLength bytes, or null if the document was given as a
+     * String.
+     */
+    private final byte[] sourceBytes;
+    private final int sourceOffset;
+    private final int sourceLength;
+
     /**
      * The id to store the object under.
      * If null, elasticsearch will automatically generate one.
@@ -75,6 +91,34 @@ public class ElasticsearchObject {
         this.type = type;
         this.id = id;
         this.source = source;
+        this.sourceBytes = null;
+        this.sourceOffset = 0;
+        this.sourceLength = 0;
+        this.version = null;
+        this.ttl = null;
+        this.create = null;
+    }
+
+    public ElasticsearchObject(String index, String type, String id, byte[] source) {
+        this(index, type, id, source, 0, source.length);
+    }
+
+    /**
+     * @param source
+     *        an array holding the UTF-8 encoded JSON document; it is not copied and must not be modified afterwards
+     * @param offset
+     *        the offset of the document in source
+     * @param length
+     *        the length of the document in bytes
+     */
+    public ElasticsearchObject(String index, String type, String id, byte[] source, int offset, int length) {
+        this.index = index;
+        this.type = type;
+        this.id = id;
+        this.source = null;
+        this.sourceBytes = source;
+        this.sourceOffset = offset;
+        this.sourceLength = length;
         this.version = null;
         this.ttl = null;
         this.create = null;
@@ -89,9 +133,46 @@ public class ElasticsearchObject {
     }
 
     public String getSource() {
+        if (source == null && sourceBytes != null) {
+            source = new String(sourceBytes, sourceOffset, sourceLength, StandardCharsets.UTF_8);
+        }
         return source;
     }
 
+    /**
+     * @return true if the source document is held as bytes; see getSourceBytes()
+     */
+    @JsonIgnore
+    public boolean hasSourceBytes() {
+        return sourceBytes != null;
+    }
+
+    /**
+     * @return the array holding the UTF-8 encoded source document, or null if it was given as a String
+     */
+    @JsonIgnore
+    public byte[] getSourceBytes() {
+        return sourceBytes;
+    }
+
+    @JsonIgnore
+    public int getSourceOffset() {
+        return sourceOffset;
+    }
+
+    @JsonIgnore
+    public int getSourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     * @return the size of the source document, in bytes if it is held as bytes and in characters otherwise
+     */
+    @JsonIgnore
+    public int getSourceSize() {
+        return sourceBytes != null ? sourceLength : source == null ? 0 : source.length();
+    }
+
     public String getId() {
         return id;
     }
@@ -123,7 +204,7 @@ public class ElasticsearchObject {
     @Override
     public String toString() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return MAPPER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             return super.toString();
         }
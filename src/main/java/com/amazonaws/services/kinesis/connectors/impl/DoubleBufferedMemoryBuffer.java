@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.util.List;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+
+/**
+ * An IBuffer that keeps two in-memory batches: an active batch that consumes records and a draining
+ * batch that is being emitted. When shouldFlush() finds the active batch full, the two are swapped,
+ * so new records flow into an empty batch while the full one is handed to the emitter.
+ * <p>
+ * While a batch is draining, getRecords(), getFirstSequenceNumber(), getLastSequenceNumber() and
+ * clear() all refer to the draining batch; otherwise they refer to the active batch. shouldFlush()
+ * keeps returning true until the draining batch is cleared, and no further swap happens until then,
+ * so only one batch is ever emitted at a time.
+ * <p>
+ * Memory is bounded to two full batches: once the active batch reaches the record count or byte
+ * size limit while the other one is still draining, consumeRecord() blocks until the draining
+ * batch is cleared, which holds the record processor back when the emitter is slower than the
+ * stream. The thread that reads the draining batch with getRecords() is never blocked, since it is
+ * the one expected to emit and clear it.
+ * <p>
+ * All methods are synchronized, so the draining batch may be emitted and cleared on a different
+ * thread from the one consuming records. Each side uses the same backing list type as
+ * BasicMemoryBuffer, so bufferPreallocate applies to both.
+ *
+ * @param <T>
+ */
+public class DoubleBufferedMemoryBuffer<T> implements IBuffer<T> {
+
+    private final long bytesPerFlush;
+    private final long numMessagesToBuffer;
+    private final long millisecondsToBuffer;
+
+    private Batch<T> active;
+    private Batch<T> draining;
+    private Thread drainingReader;
+
+    private long previousFlushTimeMillisecond;
+
+    public DoubleBufferedMemoryBuffer(KinesisConnectorConfiguration configuration) {
+        bytesPerFlush = configuration.BUFFER_BYTE_SIZE_LIMIT;
+        numMessagesToBuffer = configuration.BUFFER_RECORD_COUNT_LIMIT;
+        millisecondsToBuffer = configuration.BUFFER_MILLISECONDS_LIMIT;
+        active = new Batch<T>(BasicMemoryBuffer.<T> newRecordList(configuration));
+        draining = new Batch<T>(BasicMemoryBuffer.<T> newRecordList(configuration));
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public long getBytesToBuffer() {
+        return bytesPerFlush;
+    }
+
+    @Override
+    public long getNumRecordsToBuffer() {
+        return numMessagesToBuffer;
+    }
+
+    @Override
+    public long getMillisecondsToBuffer() {
+        return millisecondsToBuffer;
+    }
+
+    @Override
+    public synchronized void consumeRecord(T record, int recordSize, String sequenceNumber) {
+        while (isDraining() && isFull(active) && drainingReader != Thread.currentThread()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        active.add(record, recordSize, sequenceNumber);
+    }
+
+    /**
+     * Clears the draining batch if there is one, otherwise the active batch.
+     */
+    @Override
+    public synchronized void clear() {
+        if (isDraining()) {
+            draining.clear();
+            drainingReader = null;
+            notifyAll();
+        } else {
+            active.clear();
+            previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+        }
+    }
+
+    @Override
+    public synchronized String getFirstSequenceNumber() {
+        return current().firstSequenceNumber;
+    }
+
+    @Override
+    public synchronized String getLastSequenceNumber() {
+        return current().lastSequenceNumber;
+    }
+
+    /**
+     * Returns true while a batch is draining. Otherwise applies the same record count, byte size
+     * and time limits as BasicMemoryBuffer to the active batch and, if any is exceeded, swaps the
+     * active batch into the draining position before returning true.
+     *
+     * @return true if there is a batch that should be sent to the emitter
+     */
+    @Override
+    public synchronized boolean shouldFlush() {
+        if (isDraining()) {
+            return true;
+        }
+        long timelapseMillisecond = getCurrentTimeMilliseconds() - previousFlushTimeMillisecond;
+        boolean flush =
+                (!active.records.isEmpty()) && (isFull(active) || (timelapseMillisecond >= getMillisecondsToBuffer()));
+        if (flush) {
+            Batch<T> empty = draining;
+            draining = active;
+            active = empty;
+            previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+        }
+        return flush;
+    }
+
+    /**
+     * @return the records of the draining batch, or of the active batch when nothing is draining
+     */
+    @Override
+    public synchronized List<T> getRecords() {
+        if (isDraining()) {
+            drainingReader = Thread.currentThread();
+        }
+        return current().records;
+    }
+
+    /**
+     * @return true if a full batch has been swapped out and not yet cleared
+     */
+    public synchronized boolean isDraining() {
+        return !draining.records.isEmpty();
+    }
+
+    private boolean isFull(Batch<T> batch) {
+        return batch.records.size() >= getNumRecordsToBuffer() || batch.byteCount >= getBytesToBuffer();
+    }
+
+    private Batch<T> current() {
+        return isDraining() ? draining : active;
+    }
+
+    // This method has protected access for unit testing purposes.
+    protected long getCurrentTimeMilliseconds() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * One side of the double buffer along with its own bookkeeping.
+     */
+    private static class Batch<T> {
+        private final List<T> records;
+        private long byteCount;
+        private String firstSequenceNumber;
+        private String lastSequenceNumber;
+
+        private Batch(List<T> records) {
+            this.records = records;
+        }
+
+        private void add(T record, int recordSize, String sequenceNumber) {
+            if (records.isEmpty()) {
+                firstSequenceNumber = sequenceNumber;
+            }
+            lastSequenceNumber = sequenceNumber;
+            records.add(record);
+            byteCount += recordSize;
+        }
+
+        private void clear() {
+            records.clear();
+            byteCount = 0;
+            firstSequenceNumber = null;
+            lastSequenceNumber = null;
+        }
+    }
+}
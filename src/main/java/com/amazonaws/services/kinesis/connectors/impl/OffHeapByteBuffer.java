@@ -0,0 +1,267 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+
+/**
+ * An IBuffer for byte[] records that appends each record's bytes to a single direct (off-heap)
+ * memory region instead of holding the record arrays on the heap while a batch is buffered. Flush
+ * limits behave like BasicMemoryBuffer.
+ * <p>
+ * getRecords() returns a read-only view that copies a record out of the region when it is
+ * accessed, so any emitter can still consume this buffer. Emitters that only need the
+ * concatenated bytes (such as S3Emitter with direct upload enabled) can read the region in place
+ * through newInputStream() and getByteCount(), which saves building a second, concatenated copy
+ * of the batch for the upload.
+ * <p>
+ * This does not keep a flushed batch off the heap: the record processor transforms every record
+ * of the batch to the emitter's type through getRecords() before calling emit(), so each record is
+ * copied back onto the heap once per flush and held until the emit completes.
+ * <p>
+ * The region is sized from bufferByteSizeLimit and grows if a batch overshoots it. It is reused
+ * across flushes.
+ */
+public class OffHeapByteBuffer implements IBuffer<byte[]> {
+
+    // Largest region we can address with ByteBuffer's int positions
+    private static final int MAX_REGION_SIZE = Integer.MAX_VALUE - 8;
+    private static final int INITIAL_RECORD_SLOTS = 1024;
+
+    private final long bytesPerFlush;
+    private final long numMessagesToBuffer;
+    private final long millisecondsToBuffer;
+
+    private ByteBuffer region;
+    private int[] offsets;
+    private int recordCount;
+    private long byteCount;
+
+    private String firstSequenceNumber;
+    private String lastSequenceNumber;
+
+    private long previousFlushTimeMillisecond;
+
+    private final List<byte[]> records = new RecordList();
+
+    public OffHeapByteBuffer(KinesisConnectorConfiguration configuration) {
+        bytesPerFlush = configuration.BUFFER_BYTE_SIZE_LIMIT;
+        numMessagesToBuffer = configuration.BUFFER_RECORD_COUNT_LIMIT;
+        millisecondsToBuffer = configuration.BUFFER_MILLISECONDS_LIMIT;
+        region = ByteBuffer.allocateDirect((int) Math.max(0L, Math.min(bytesPerFlush, MAX_REGION_SIZE)));
+        offsets = new int[(int) Math.max(1L, Math.min(numMessagesToBuffer, INITIAL_RECORD_SLOTS))];
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public long getBytesToBuffer() {
+        return bytesPerFlush;
+    }
+
+    @Override
+    public long getNumRecordsToBuffer() {
+        return numMessagesToBuffer;
+    }
+
+    @Override
+    public long getMillisecondsToBuffer() {
+        return millisecondsToBuffer;
+    }
+
+    @Override
+    public void consumeRecord(byte[] record, int recordSize, String sequenceNumber) {
+        if (recordCount == 0) {
+            firstSequenceNumber = sequenceNumber;
+        }
+        lastSequenceNumber = sequenceNumber;
+        ensureCapacity(record.length);
+        if (recordCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[recordCount++] = region.position();
+        region.put(record);
+        byteCount += recordSize;
+    }
+
+    @Override
+    public void clear() {
+        // Buffer casts keep these calls linkable on Java 7/8 runtimes
+        ((Buffer) region).clear();
+        recordCount = 0;
+        byteCount = 0;
+        firstSequenceNumber = null;
+        lastSequenceNumber = null;
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public String getFirstSequenceNumber() {
+        return firstSequenceNumber;
+    }
+
+    @Override
+    public String getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    @Override
+    public boolean shouldFlush() {
+        long timelapseMillisecond = getCurrentTimeMilliseconds() - previousFlushTimeMillisecond;
+        return (recordCount > 0)
+                && ((recordCount >= getNumRecordsToBuffer()) || (byteCount >= getBytesToBuffer()) || (timelapseMillisecond >= getMillisecondsToBuffer()));
+    }
+
+    /**
+     * @return a read-only view of the buffered records; each access copies the record out of the
+     *         off-heap region
+     */
+    @Override
+    public List<byte[]> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the number of record bytes currently held in the region
+     */
+    public int getByteCount() {
+        return region.position();
+    }
+
+    /**
+     * Returns a stream over the concatenated bytes of all buffered records, read directly from the
+     * off-heap region. The stream supports mark() and reset() over its whole length, so an upload
+     * can be retried from the start. It is only valid until the buffer is next modified or cleared.
+     *
+     * @return a stream of getByteCount() bytes
+     */
+    public InputStream newInputStream() {
+        ByteBuffer contents = region.asReadOnlyBuffer();
+        ((Buffer) contents).flip();
+        return new ByteBufferInputStream(contents);
+    }
+
+    // This method has protected access for unit testing purposes.
+    protected long getCurrentTimeMilliseconds() {
+        return System.currentTimeMillis();
+    }
+
+    private void ensureCapacity(int length) {
+        if (region.remaining() >= length) {
+            return;
+        }
+        long required = (long) region.position() + length;
+        if (required > MAX_REGION_SIZE) {
+            throw new IllegalStateException("OffHeapByteBuffer cannot hold more than " + MAX_REGION_SIZE + " bytes");
+        }
+        int newCapacity = (int) Math.min(MAX_REGION_SIZE, Math.max(required, 2L * region.capacity()));
+        ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity);
+        ((Buffer) region).flip();
+        grown.put(region);
+        region = grown;
+    }
+
+    /**
+     * Read-only list view over the records stored in the region.
+     */
+    private class RecordList extends AbstractList<byte[]> implements RandomAccess {
+
+        @Override
+        public byte[] get(int index) {
+            if (index < 0 || index >= recordCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + recordCount);
+            }
+            int start = offsets[index];
+            int end = (index + 1 < recordCount) ? offsets[index + 1] : region.position();
+            byte[] record = new byte[end - start];
+            ByteBuffer source = region.duplicate();
+            ((Buffer) source).position(start);
+            source.get(record);
+            return record;
+        }
+
+        @Override
+        public int size() {
+            return recordCount;
+        }
+    }
+
+    /**
+     * InputStream over the remaining bytes of a ByteBuffer. mark() records the buffer position, so
+     * reset() can rewind any distance regardless of the read limit.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer source;
+        private int mark;
+
+        private ByteBufferInputStream(ByteBuffer source) {
+            this.source = source;
+            this.mark = source.position();
+        }
+
+        @Override
+        public int read() {
+            return source.hasRemaining() ? (source.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, source.remaining());
+            source.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0L, Math.min(n, source.remaining()));
+            ((Buffer) source).position(source.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return source.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = source.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            ((Buffer) source).position(mark);
+        }
+    }
+}
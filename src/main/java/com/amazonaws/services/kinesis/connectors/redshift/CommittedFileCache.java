@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An in-memory record of the files known to be in an Amazon Redshift file table, used by
+ * RedshiftManifestEmitter to avoid asking Amazon Redshift whether files were already copied when
+ * the answer is certain.
+ * <ul>
+ * <li>Optionally, a bloom filter in two generations, each sized for
+ * redshiftCommittedFileCacheExpectedFiles files with a 1% false positive rate. When the current generation has taken that many files it
+ * becomes the previous one, and the oldest is dropped, so the filter stays accurate however many
+ * files are recorded. A file neither generation contains has not been recorded among the last
+ * redshiftCommittedFileCacheExpectedFiles files.</li>
+ * <li>The last redshiftCommittedFileCacheRecentFiles files exactly, least recently used first out.
+ * A file among them has certainly been recorded.</li>
+ * </ul>
+ * Files are recorded when this JVM commits them, and optionally read from the file table when the
+ * cache is first used (seed()). Without the bloom filter only the recent files are kept, and
+ * mightContain() answers for them alone. One cache is shared per file table and kind in the JVM;
+ * see forTable().
+ */
+public class CommittedFileCache {
+    private static final Log LOG = LogFactory.getLog(CommittedFileCache.class);
+
+    private static final Map<String, CommittedFileCache> CACHES = new HashMap<String, CommittedFileCache>();
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int SEED_FETCH_SIZE = 10000;
+
+    private final String name;
+    private final int expectedFiles;
+    // Null without the bloom filter
+    private BitSet bits;
+    // The generation before bits, or null before the first rotation
+    private BitSet previousBits;
+    private long generationSize;
+    private final int numBits;
+    private final int numHashes;
+    private final Map<String, Boolean> recent;
+    private long size;
+    private boolean seeded;
+
+    CommittedFileCache(String name, int expectedFiles, final int recentFiles, boolean bloomFilter) {
+        this.name = name;
+        this.expectedFiles = Math.max(1, expectedFiles);
+        long optimalBits = (long) Math.ceil(-Math.max(1, expectedFiles) * Math.log(FALSE_POSITIVE_RATE)
+                / (Math.log(2) * Math.log(2)));
+        this.numBits = (int) Math.min(Integer.MAX_VALUE - 1, Math.max(64, optimalBits));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / Math.max(1, expectedFiles) * Math.log(2)));
+        this.bits = bloomFilter ? new BitSet(numBits) : null;
+        this.recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > recentFiles;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all emitters using the given file table, creating it with the
+     * given sizes if needed. Caches with and without the bloom filter are kept apart, as a bloom
+     * filter started late would not contain the files committed before it.
+     *
+     * @param url
+     * @param fileTable
+     * @param expectedFiles
+     * @param recentFiles
+     * @param bloomFilter
+     *        whether to keep the bloom filter; without it mightContain() only knows the recent files
+     * @return
+     */
+    public static CommittedFileCache forTable(String url,
+            String fileTable,
+            int expectedFiles,
+            int recentFiles,
+            boolean bloomFilter) {
+        String name = url + "|" + fileTable + (bloomFilter ? "|bloom" : "");
+        synchronized (CACHES) {
+            CommittedFileCache cache = CACHES.get(name);
+            if (cache == null) {
+                cache = new CommittedFileCache(name, expectedFiles, recentFiles, bloomFilter);
+                CACHES.put(name, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return false if the file has not been recorded among the last expected number of files, or
+     *         without the bloom filter among the recent files
+     */
+    public synchronized boolean mightContain(String file) {
+        if (recent.containsKey(file)) {
+            return true;
+        }
+        if (bits == null) {
+            return false;
+        }
+        long hash = hash(file);
+        return contains(bits, hash) || (previousBits != null && contains(previousBits, hash));
+    }
+
+    /**
+     * @return true if the file has certainly been recorded
+     */
+    public synchronized boolean containsRecent(String file) {
+        return recent.get(file) != null;
+    }
+
+    public synchronized void addAll(Collection<String> files) {
+        for (String file : files) {
+            add(file);
+        }
+    }
+
+    /**
+     * Reads the files in the file table into the cache, unless this has been done before. At most
+     * the expected number of files are read, those with the greatest names, which for filenames
+     * built from sequence numbers or dates are the most recent. Must be called outside auto-commit
+     * mode so the rows are fetched in batches.
+     *
+     * @param conn
+     * @param fileTable
+     * @param fileKeyColumn
+     * @throws SQLException
+     */
+    public synchronized void seed(PooledRedshiftConnection conn, String fileTable, String fileKeyColumn)
+        throws SQLException {
+        if (seeded) {
+            return;
+        }
+        PreparedStatement select =
+                conn.prepareStatement("SELECT " + fileKeyColumn + " FROM " + fileTable + " ORDER BY " + fileKeyColumn
+                        + " DESC LIMIT " + expectedFiles + ";");
+        select.setFetchSize(SEED_FETCH_SIZE);
+        long count = 0;
+        try (ResultSet resultSet = select.executeQuery()) {
+            while (resultSet.next()) {
+                add(resultSet.getString(1));
+                count++;
+            }
+        }
+        seeded = true;
+        LOG.info("Seeded committed file cache for " + name + " with " + count + " files");
+    }
+
+    /**
+     * @return the number of files recorded
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private void add(String file) {
+        recent.put(file, Boolean.TRUE);
+        size++;
+        if (bits == null) {
+            return;
+        }
+        if (generationSize >= expectedFiles) {
+            previousBits = bits;
+            bits = new BitSet(numBits);
+            generationSize = 0;
+            LOG.debug("Started a new committed file cache generation for " + name);
+        }
+        long hash = hash(file);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            bits.set(index(h1 + i * h2));
+        }
+        generationSize++;
+    }
+
+    private boolean contains(BitSet generation, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            if (!generation.get(index(h1 + i * h2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % numBits;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes of the file name, mixed and split into two hashes for double hashing.
+     */
+    private static long hash(String file) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : file.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        // Final mix so that both halves depend on every byte
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A connection borrowed from a RedshiftConnectionPool. Closing it returns it to the pool.
+ * Statements prepared through prepareStatement() are kept with the connection and reused by later
+ * borrowers, so they are parsed by the leader node once per connection rather than once per emit.
+ * Callers must not close those statements themselves.
+ */
+public class PooledRedshiftConnection implements AutoCloseable {
+    private static final Log LOG = LogFactory.getLog(PooledRedshiftConnection.class);
+
+    private final RedshiftConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+    private final Set<String> sessionObjects = new HashSet<String>();
+    private boolean broken;
+    // Set once the connection is back with the pool, until it is next borrowed
+    boolean returned;
+    long lastUsedMillis;
+
+    PooledRedshiftConnection(RedshiftConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the connection's prepared statement for the given SQL, preparing it on first use.
+     *
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * Records that an object living as long as the session, such as a temporary table, has been created on this
+     * connection.
+     *
+     * @param name
+     * @return false if the object was already recorded
+     */
+    public boolean addSessionObject(String name) {
+        return sessionObjects.add(name);
+    }
+
+    /**
+     * Marks the connection as unusable, so that it is closed instead of returned to the pool. Call
+     * this when a statement failed in a way that may have left the connection broken.
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    /**
+     * Returns the connection to its pool. Closing it again has no effect.
+     */
+    @Override
+    public void close() {
+        if (returned) {
+            return;
+        }
+        returned = true;
+        pool.returnConnection(this, broken);
+    }
+
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return connection.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void closeQuietly() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warn("Unable to close Amazon Redshift connection.", e);
+        }
+    }
+}
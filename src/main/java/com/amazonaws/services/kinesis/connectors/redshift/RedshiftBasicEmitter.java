@@ -15,20 +15,26 @@
 package com.amazonaws.services.kinesis.connectors.redshift;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.s3.CompressionCodec;
 import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
 
 /**
@@ -45,53 +51,235 @@ import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
  * <li>file table and key column (file table is used to store file names to prevent duplicate entries)</li>
  * <li>the delimiter used for string parsing when inserting entries into Redshift</li>
  * <br>
+ * Connections are borrowed from the RedshiftConnectionPool shared by the emitters in the JVM. If redshiftLoadWindowMillis
+ * is set, files are not copied one by one but handed to the RedshiftLoadCoordinator, which copies the files of all
+ * shards written within the window with a single manifest COPY.
+ * <p>
+ * Files can be compressed with GZIP, BZIP2 or ZSTD through s3CompressionCodec or withCompressionCodec(), and the COPY
+ * adds the matching option along with those described in RedshiftCopyOptions. A single file is loaded by one slice of
+ * the cluster, so with redshiftCopyFileCount greater than 1 each batch is split into that many files of about the
+ * same size, uploaded concurrently (up to s3MultipartConcurrency at once) and loaded with one manifest COPY that spreads
+ * them across the slices. Setting it to 0 uses the number of slices in the cluster.
+ * <p>
  * NOTE: The Amazon S3 bucket and the Amazon Redshift cluster need to be in the same region.
  */
 public class RedshiftBasicEmitter extends S3Emitter {
     private static final Log LOG = LogFactory.getLog(RedshiftBasicEmitter.class);
     private final String s3bucket;
     private final String redshiftTable;
-    private final String redshiftURL;
     private final char redshiftDelimiter;
-    private final Properties loginProperties;
+    private final RedshiftConnectionPool connectionPool;
+    private final RedshiftLoadCoordinator loadCoordinator;
+    private final RedshiftCopyOptions copyOptions;
+    private final int copyFileCount;
+    private volatile int sliceCount;
+    private ExecutorService partExecutor;
     private final String accessKey;
     private final String secretKey;
+    private static final String MANIFEST_PREFIX = "manifests/";
 
     public RedshiftBasicEmitter(KinesisConnectorConfiguration configuration) {
         super(configuration);
         s3bucket = configuration.S3_BUCKET;
         redshiftTable = configuration.REDSHIFT_DATA_TABLE;
         redshiftDelimiter = configuration.REDSHIFT_DATA_DELIMITER;
-        redshiftURL = configuration.REDSHIFT_URL;
-        loginProperties = new Properties();
-        loginProperties.setProperty("user", configuration.REDSHIFT_USERNAME);
-        loginProperties.setProperty("password", configuration.REDSHIFT_PASSWORD);
+        connectionPool = RedshiftConnectionPool.acquire(configuration);
+        if (configuration.REDSHIFT_LOAD_WINDOW_MILLIS > 0) {
+            loadCoordinator = RedshiftLoadCoordinator.acquire(configuration);
+        } else {
+            loadCoordinator = null;
+        }
+        copyOptions = new RedshiftCopyOptions(configuration);
+        copyFileCount = configuration.REDSHIFT_COPY_FILE_COUNT;
         accessKey = configuration.AWS_CREDENTIALS_PROVIDER.getCredentials().getAWSAccessKeyId();
         secretKey = configuration.AWS_CREDENTIALS_PROVIDER.getCredentials().getAWSSecretKey();
     }
 
     @Override
     public List<byte[]> emit(final UnmodifiableBuffer<byte[]> buffer) throws IOException {
-        List<byte[]> failed = super.emit(buffer);
-        if (!failed.isEmpty()) {
-            return buffer.getRecords();
+        String s3File = getFilename(buffer);
+        List<String> s3Files;
+        int fileCount = Math.min(getCopyFileCount(), buffer.getRecords().size());
+        if (fileCount > 1) {
+            s3Files = uploadParts(buffer.getRecords(), s3File, fileCount);
+            if (s3Files == null) {
+                return buffer.getRecords();
+            }
+        } else {
+            List<byte[]> failed = super.emit(buffer);
+            if (!failed.isEmpty()) {
+                return buffer.getRecords();
+            }
+            s3Files = Collections.singletonList(s3File);
+        }
+        if (loadCoordinator != null) {
+            return copyThroughCoordinator(buffer, s3Files);
         }
-        Connection conn = null;
+        PooledRedshiftConnection conn = null;
         try {
-            conn = DriverManager.getConnection(redshiftURL, loginProperties);
-            String s3File = getFilename(buffer);
-            executeStatement(generateCopyStatement(s3File), conn);
-            LOG.info("Successfully copied " + getNumberOfCopiedRecords(conn)
-                    + " records to Amazon Redshift from file s3://" + s3Bucket + "/" + s3File);
+            String copyStatement;
+            String source;
+            if (s3Files.size() > 1) {
+                String manifestFile = MANIFEST_PREFIX + s3File;
+                String manifest = RedshiftManifestEmitter.generateManifestFile(s3Bucket, s3Files, true);
+                uploadByteArray(manifest.getBytes(StandardCharsets.UTF_8), manifestFile);
+                copyStatement = generateCopyStatement(manifestFile, true);
+                source = s3Files.size() + " files using manifest " + getS3URI(manifestFile);
+            } else {
+                copyStatement = generateCopyStatement(s3File);
+                source = "file " + getS3URI(s3File);
+            }
+            conn = connectionPool.getConnection();
+            executeStatement(copyStatement, conn.getConnection());
+            LOG.info("Successfully copied " + getNumberOfCopiedRecords(conn) + " records to Amazon Redshift from "
+                    + source);
             return Collections.emptyList();
         } catch (Exception e) {
             LOG.error(e);
+            if (conn != null) {
+                conn.invalidate();
+            }
             return buffer.getRecords();
         } finally {
             closeConnection(conn);
         }
     }
 
+    private List<byte[]> copyThroughCoordinator(UnmodifiableBuffer<byte[]> buffer, List<String> s3Files) {
+        try {
+            if (loadCoordinator.copy(compressionCodec, s3Files)) {
+                return Collections.emptyList();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted waiting for Amazon Redshift copy", e);
+        }
+        return buffer.getRecords();
+    }
+
+    /**
+     * Splits the records into fileCount contiguous parts of about the same number of bytes and
+     * uploads them concurrently as separate files.
+     *
+     * @param records
+     * @param s3File
+     *        the name of the file the records would otherwise be written to
+     * @param fileCount
+     *        at most the number of records
+     * @return the names of the files, or null if an upload failed
+     */
+    private List<String> uploadParts(List<byte[]> records, String s3File, int fileCount) {
+        long totalBytes = 0;
+        for (byte[] record : records) {
+            totalBytes += record.length;
+        }
+        List<String> s3Files = new ArrayList<String>(fileCount);
+        List<Future<Void>> uploads = new ArrayList<Future<Void>>(fileCount);
+        int start = 0;
+        long bytes = 0;
+        for (int part = 1; part <= fileCount; part++) {
+            long targetBytes = totalBytes * part / fileCount;
+            // Leave at least one record for each of the remaining parts
+            int last = records.size() - (fileCount - part);
+            int end = start;
+            do {
+                bytes += records.get(end++).length;
+            } while (end < last && (part == fileCount || bytes < targetBytes));
+            final List<byte[]> partRecords = records.subList(start, end);
+            final String partFile = getPartFilename(s3File, part);
+            s3Files.add(partFile);
+            uploads.add(getPartExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    uploadRecords(partRecords, partFile);
+                    return null;
+                }
+            }));
+            start = end;
+        }
+        try {
+            for (Future<Void> upload : uploads) {
+                upload.get();
+            }
+            LOG.debug("Uploaded " + records.size() + " records to Amazon S3 in " + fileCount + " files named "
+                    + getS3URI(s3Files.get(0)) + " and following");
+            return s3Files;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted uploading files to Amazon S3", e);
+        } catch (ExecutionException e) {
+            LOG.error("Caught exception when uploading file " + getS3URI(s3File)
+                    + " in parts to Amazon S3. Failing this emit attempt.", e.getCause());
+        }
+        for (Future<Void> upload : uploads) {
+            upload.cancel(true);
+        }
+        return null;
+    }
+
+    /**
+     * Inserts -partN in front of the compression codec's extension, if any.
+     */
+    private String getPartFilename(String s3File, int part) {
+        String suffix = "-part" + part;
+        if (compressionCodec != null && s3File.endsWith(compressionCodec.getFileExtension())) {
+            int extensionStart = s3File.length() - compressionCodec.getFileExtension().length();
+            return s3File.substring(0, extensionStart) + suffix + s3File.substring(extensionStart);
+        }
+        return s3File + suffix;
+    }
+
+    private synchronized ExecutorService getPartExecutor() {
+        if (partExecutor == null) {
+            partExecutor = Executors.newFixedThreadPool(multipartConcurrency);
+        }
+        return partExecutor;
+    }
+
+    /**
+     * Returns redshiftCopyFileCount, or if it is 0 the number of slices in the cluster, which is
+     * queried once. If the query fails the batch is written to a single file.
+     */
+    private int getCopyFileCount() {
+        if (copyFileCount > 0) {
+            return copyFileCount;
+        }
+        if (sliceCount > 0) {
+            return sliceCount;
+        }
+        PooledRedshiftConnection conn;
+        try {
+            conn = connectionPool.getConnection();
+        } catch (SQLException e) {
+            LOG.warn("Could not connect to Amazon Redshift to count its slices", e);
+            return 1;
+        }
+        try (ResultSet resultSet = conn.prepareStatement("SELECT COUNT(*) FROM stv_slices;").executeQuery()) {
+            resultSet.next();
+            sliceCount = Math.max(1, resultSet.getInt(1));
+            LOG.info("Splitting each batch into " + sliceCount + " files, one per Amazon Redshift slice");
+        } catch (SQLException e) {
+            LOG.warn("Could not count the Amazon Redshift slices. Writing each batch to a single file", e);
+            conn.invalidate();
+            sliceCount = 1;
+        } finally {
+            closeConnection(conn);
+        }
+        return sliceCount;
+    }
+
+    /**
+     * Compresses every file with the given codec, which must be one Amazon Redshift can load.
+     *
+     * @throws IllegalArgumentException
+     *         if Amazon Redshift cannot load files compressed with the codec
+     */
+    @Override
+    public S3Emitter withCompressionCodec(CompressionCodec codec) {
+        RedshiftCopyOptions.compressionKeyword(codec);
+        return super.withCompressionCodec(codec);
+    }
+
     @Override
     public void fail(List<byte[]> records) {
         super.fail(records);
@@ -99,26 +287,45 @@ public class RedshiftBasicEmitter extends S3Emitter {
 
     @Override
     public void shutdown() {
+        synchronized (this) {
+            if (partExecutor != null) {
+                partExecutor.shutdownNow();
+            }
+        }
         super.shutdown();
+        if (loadCoordinator != null) {
+            loadCoordinator.release();
+        }
+        connectionPool.release();
     }
 
-    private void closeConnection(Connection conn) {
-        try {
-            if (conn != null && !conn.isClosed()) {
-                conn.close();
-            }
-        } catch (Exception e) {
-            LOG.error(e);
+    private void closeConnection(PooledRedshiftConnection conn) {
+        if (conn != null) {
+            conn.close();
         }
     }
 
     protected String generateCopyStatement(String s3File) {
+        return generateCopyStatement(s3File, false);
+    }
+
+    /**
+     * @param s3File
+     *        the file to copy, or with manifest set a manifest listing the files to copy
+     * @param manifest
+     * @return
+     */
+    protected String generateCopyStatement(String s3File, boolean manifest) {
         StringBuilder exec = new StringBuilder();
         exec.append("COPY " + redshiftTable + " ");
         exec.append("FROM 's3://" + s3bucket + "/" + s3File + "' ");
         exec.append("CREDENTIALS 'aws_access_key_id=" + accessKey);
         exec.append(";aws_secret_access_key=" + secretKey + "' ");
         exec.append("DELIMITER '" + redshiftDelimiter + "'");
+        exec.append(copyOptions.toSql(compressionCodec));
+        if (manifest) {
+            exec.append(" MANIFEST");
+        }
         exec.append(";");
         return exec.toString();
     }
@@ -129,9 +336,9 @@ public class RedshiftBasicEmitter extends S3Emitter {
         }
     }
 
-    private int getNumberOfCopiedRecords(Connection conn) throws SQLException {
+    private int getNumberOfCopiedRecords(PooledRedshiftConnection conn) throws SQLException {
         String cmd = "select pg_last_copy_count();";
-        try (Statement stmt = conn.createStatement(); ResultSet resultSet = stmt.executeQuery(cmd)) {
+        try (ResultSet resultSet = conn.prepareStatement(cmd).executeQuery()) {
             resultSet.next();
             int numCopiedRecords = resultSet.getInt(1);
             return numCopiedRecords;
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+
+/**
+ * A small pool of JDBC connections to Amazon Redshift shared by every Redshift emitter in the JVM
+ * that uses the same URL and user, so that emits reuse open connections instead of paying the
+ * connection, TLS and authentication handshake with the leader node on every flush.
+ * <ul>
+ * <li>At most redshiftConnectionPoolSize connections are open or in use at once; getConnection()
+ * blocks until one is free.</li>
+ * <li>A connection that has been idle for more than redshiftConnectionValidateAfterMillis is
+ * validated before it is handed out, and one idle for more than redshiftConnectionMaxIdleMillis is
+ * closed.</li>
+ * <li>Each connection keeps its prepared statements; see PooledRedshiftConnection.</li>
+ * </ul>
+ * Pools are reference counted like S3TransferService: acquire() returns the existing pool or
+ * creates one, and its connections are closed when the last holder calls release().
+ */
+public class RedshiftConnectionPool {
+    private static final Log LOG = LogFactory.getLog(RedshiftConnectionPool.class);
+
+    private static final Map<String, RedshiftConnectionPool> POOLS = new HashMap<String, RedshiftConnectionPool>();
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final String key;
+    private final String url;
+    private final Properties loginProperties;
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final long validateAfterMillis;
+    private final Semaphore permits;
+    private final Deque<PooledRedshiftConnection> idle = new ArrayDeque<PooledRedshiftConnection>();
+    private int references;
+    private boolean closed;
+
+    private RedshiftConnectionPool(String key, KinesisConnectorConfiguration configuration) {
+        this.key = key;
+        this.url = configuration.REDSHIFT_URL;
+        this.loginProperties = new Properties();
+        loginProperties.setProperty("user", configuration.REDSHIFT_USERNAME);
+        loginProperties.setProperty("password", configuration.REDSHIFT_PASSWORD);
+        this.maxSize = Math.max(1, configuration.REDSHIFT_CONNECTION_POOL_SIZE);
+        this.maxIdleMillis = configuration.REDSHIFT_CONNECTION_MAX_IDLE_MILLIS;
+        this.validateAfterMillis = configuration.REDSHIFT_CONNECTION_VALIDATE_AFTER_MILLIS;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Returns the shared pool for the configuration's Amazon Redshift URL and user, creating it if
+     * needed. Each call must be matched by a call to release().
+     *
+     * @param configuration
+     * @return
+     */
+    public static RedshiftConnectionPool acquire(KinesisConnectorConfiguration configuration) {
+        String key = configuration.REDSHIFT_URL + "|" + configuration.REDSHIFT_USERNAME;
+        synchronized (POOLS) {
+            RedshiftConnectionPool pool = POOLS.get(key);
+            if (pool == null) {
+                pool = new RedshiftConnectionPool(key, configuration);
+                POOLS.put(key, pool);
+                LOG.info("Created Amazon Redshift connection pool for " + configuration.REDSHIFT_URL + " with up to "
+                        + pool.maxSize + " connections");
+            }
+            pool.references++;
+            return pool;
+        }
+    }
+
+    /**
+     * Releases a reference obtained from acquire(), closing the pool's connections if it was the
+     * last.
+     */
+    public void release() {
+        synchronized (POOLS) {
+            if (--references > 0) {
+                return;
+            }
+            POOLS.remove(key);
+        }
+        LOG.info("Closing Amazon Redshift connection pool for " + url);
+        List<PooledRedshiftConnection> connections;
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList<PooledRedshiftConnection>(idle);
+            idle.clear();
+        }
+        for (PooledRedshiftConnection connection : connections) {
+            connection.closeQuietly();
+        }
+    }
+
+    /**
+     * Borrows a connection, blocking while all redshiftConnectionPoolSize connections are in use.
+     * The connection is in auto-commit mode and must be returned by closing it.
+     *
+     * @return
+     * @throws SQLException
+     *         if a new connection could not be opened, or if interrupted while waiting
+     */
+    public PooledRedshiftConnection getConnection() throws SQLException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for an Amazon Redshift connection", e);
+        }
+        try {
+            while (true) {
+                PooledRedshiftConnection connection;
+                synchronized (this) {
+                    connection = idle.pollFirst();
+                }
+                if (connection == null) {
+                    break;
+                }
+                long idleMillis = System.currentTimeMillis() - connection.lastUsedMillis;
+                if (idleMillis > maxIdleMillis) {
+                    connection.closeQuietly();
+                } else if (idleMillis > validateAfterMillis && !connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    LOG.info("Discarding Amazon Redshift connection that failed validation");
+                    connection.closeQuietly();
+                } else {
+                    connection.returned = false;
+                    return connection;
+                }
+            }
+            return new PooledRedshiftConnection(this, DriverManager.getConnection(url, loginProperties));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes back a borrowed connection, keeping it for reuse unless it is broken. Any open
+     * transaction is rolled back.
+     */
+    void returnConnection(PooledRedshiftConnection connection, boolean broken) {
+        try {
+            if (!broken) {
+                if (!connection.getConnection().getAutoCommit()) {
+                    connection.getConnection().rollback();
+                    connection.getConnection().setAutoCommit(true);
+                }
+                connection.lastUsedMillis = System.currentTimeMillis();
+                synchronized (this) {
+                    if (!closed) {
+                        idle.addFirst(connection);
+                        connection = null;
+                        evictIdle();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not reset Amazon Redshift connection. Closing it", e);
+        } finally {
+            if (connection != null) {
+                connection.closeQuietly();
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes connections idle for longer than redshiftConnectionMaxIdleMillis; the least recently
+     * used are at the end of the queue.
+     */
+    private synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledRedshiftConnection> connections = idle.descendingIterator();
+        while (connections.hasNext()) {
+            PooledRedshiftConnection connection = connections.next();
+            if (now - connection.lastUsedMillis <= maxIdleMillis) {
+                break;
+            }
+            connections.remove();
+            connection.closeQuietly();
+        }
+    }
+}
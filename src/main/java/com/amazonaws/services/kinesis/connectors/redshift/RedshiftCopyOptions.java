@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.util.Locale;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.s3.CompressionCodec;
+import com.amazonaws.services.kinesis.connectors.s3.StandardCompressionCodec;
+
+/**
+ * The options the Redshift emitters add to their COPY commands after the DELIMITER:
+ * <ul>
+ * <li>GZIP, BZIP2, LZOP or ZSTD, matching the CompressionCodec the files were written with. The
+ * codec is recognized by its file extension, so a custom codec writing .lzo files is loaded with
+ * LZOP.</li>
+ * <li>COMPUPDATE and STATUPDATE, from redshiftCopyCompUpdate and redshiftCopyStatUpdate if set.
+ * Setting both to OFF saves the analysis Amazon Redshift may otherwise run at the end of a
+ * COPY, which dominates the cost of the small frequent loads a stream produces.</li>
+ * <li>MAXERROR, from redshiftCopyMaxError if greater than 0.</li>
+ * </ul>
+ */
+public class RedshiftCopyOptions {
+    private final String compUpdate;
+    private final String statUpdate;
+    private final int maxError;
+    private final CompressionCodec compressionCodec;
+
+    public RedshiftCopyOptions(KinesisConnectorConfiguration configuration) {
+        compUpdate =
+                updateOption(KinesisConnectorConfiguration.PROP_REDSHIFT_COPY_COMP_UPDATE,
+                        configuration.REDSHIFT_COPY_COMP_UPDATE,
+                        "ON|OFF|TRUE|FALSE|PRESET");
+        statUpdate =
+                updateOption(KinesisConnectorConfiguration.PROP_REDSHIFT_COPY_STAT_UPDATE,
+                        configuration.REDSHIFT_COPY_STAT_UPDATE,
+                        "ON|OFF|TRUE|FALSE");
+        maxError = configuration.REDSHIFT_COPY_MAX_ERROR;
+        if (configuration.S3_COMPRESSION_CODEC != null) {
+            compressionCodec =
+                    StandardCompressionCodec.valueOf(configuration.S3_COMPRESSION_CODEC.toUpperCase(Locale.ROOT));
+            compressionKeyword(compressionCodec);
+        } else {
+            compressionCodec = null;
+        }
+    }
+
+    /**
+     * @return the options for files written with the codec named in s3CompressionCodec
+     */
+    public String toSql() {
+        return toSql(compressionCodec);
+    }
+
+    /**
+     * Returns the options for files written with the given codec, each preceded by a space.
+     *
+     * @param codec
+     *        the codec the files were compressed with, or null if they are not compressed
+     * @return
+     */
+    public String toSql(CompressionCodec codec) {
+        StringBuilder options = new StringBuilder();
+        String compression = compressionKeyword(codec);
+        if (compression != null) {
+            options.append(" " + compression);
+        }
+        if (compUpdate != null) {
+            options.append(" COMPUPDATE " + compUpdate);
+        }
+        if (statUpdate != null) {
+            options.append(" STATUPDATE " + statUpdate);
+        }
+        if (maxError > 0) {
+            options.append(" MAXERROR " + maxError);
+        }
+        return options.toString();
+    }
+
+    /**
+     * Returns the COPY option for loading files compressed with the given codec.
+     *
+     * @param codec
+     * @return the option, or null if codec is null
+     * @throws IllegalArgumentException
+     *         if Amazon Redshift cannot load files compressed with the codec
+     */
+    public static String compressionKeyword(CompressionCodec codec) {
+        if (codec == null) {
+            return null;
+        }
+        String extension = String.valueOf(codec.getFileExtension());
+        switch (extension) {
+            case ".gz":
+                return "GZIP";
+            case ".bz2":
+                return "BZIP2";
+            case ".lzo":
+                return "LZOP";
+            case ".zst":
+                return "ZSTD";
+            default:
+                throw new IllegalArgumentException("Amazon Redshift cannot COPY files compressed as " + extension
+                        + ". Use GZIP, BZIP2, LZOP or ZSTD");
+        }
+    }
+
+    private static String updateOption(String property, String value, String allowed) {
+        if (value == null) {
+            return null;
+        }
+        String option = value.trim().toUpperCase(Locale.ROOT);
+        if (!option.matches(allowed)) {
+            throw new IllegalArgumentException(property + " must be one of " + allowed.replace('|', ',') + ": "
+                    + value);
+        }
+        return option;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.s3.CompressionCodec;
+import com.amazonaws.services.kinesis.connectors.s3.S3TransferService;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * Groups the Amazon S3 files written by the RedshiftBasicEmitters of all shards in the JVM into
+ * one COPY per group, instead of one small COPY per shard flush competing for the Amazon Redshift
+ * commit queue.
+ * <p>
+ * A group opens with the first file submitted and collects files for redshiftLoadWindowMillis, or
+ * until it holds redshiftLoadMaxFiles files. It is then loaded by writing a manifest of its files
+ * to Amazon S3 and running one manifest COPY. Groups for a table are loaded one at a time. Each
+ * emitter blocks in copy() until the group holding its file has been loaded, and only then
+ * reports its buffer as emitted, so a shard's checkpoint never passes data that has not been
+ * committed.
+ * <p>
+ * An emitter whose group has not started loading after redshiftLoadTimeoutMillis withdraws its
+ * files from the group and reports the COPY as failed, so its records are retried rather than
+ * waiting on a group that may never load. Once the COPY has started, the emitter waits for it to
+ * commit or fail, as the files may already be loaded.
+ * <p>
+ * A COPY loads all of its files or none, so if the group COPY fails, the batches submitted to it
+ * are copied again one at a time. A batch that cannot be loaded, for example because of a
+ * malformed record, then fails only the emitter that submitted it, which returns its records for
+ * retry.
+ * <p>
+ * Emitters pass the CompressionCodec their files were written with. Files written with different
+ * codecs go into separate groups, each loaded with the matching option and those described in
+ * RedshiftCopyOptions.
+ * <p>
+ * Coordinators are shared per Amazon Redshift URL and data table, and reference counted like
+ * RedshiftConnectionPool. Manifests are uploaded through the shared S3TransferService when
+ * s3SharedTransferService is set, otherwise through the coordinator's own Amazon S3 client. When
+ * the last reference is released, groups still collecting files are loaded before the
+ * coordinator shuts down.
+ */
+public class RedshiftLoadCoordinator {
+    private static final Log LOG = LogFactory.getLog(RedshiftLoadCoordinator.class);
+
+    private static final Map<String, RedshiftLoadCoordinator> COORDINATORS =
+            new HashMap<String, RedshiftLoadCoordinator>();
+
+    private static final String MANIFEST_PREFIX = "manifests/";
+
+    private final String key;
+    private final String s3Bucket;
+    private final String dataTable;
+    private final char dataDelimiter;
+    private final long windowMillis;
+    private final int maxFiles;
+    private final long loadTimeoutMillis;
+    private final RedshiftCopyOptions copyOptions;
+    private final AWSCredentialsProvider credentialsProvider;
+    private final RedshiftConnectionPool connectionPool;
+    private final S3TransferService transferService;
+    private final AmazonS3Client s3Client;
+    private final ScheduledThreadPoolExecutor executor;
+    // The group collecting files for each set of COPY options
+    private final Map<String, Group> current = new HashMap<String, Group>();
+    private int references;
+
+    private RedshiftLoadCoordinator(String key, KinesisConnectorConfiguration configuration) {
+        this.key = key;
+        s3Bucket = configuration.S3_BUCKET;
+        dataTable = configuration.REDSHIFT_DATA_TABLE;
+        dataDelimiter = configuration.REDSHIFT_DATA_DELIMITER;
+        windowMillis = configuration.REDSHIFT_LOAD_WINDOW_MILLIS;
+        maxFiles = Math.max(1, configuration.REDSHIFT_LOAD_MAX_FILES);
+        loadTimeoutMillis = Math.max(windowMillis, configuration.REDSHIFT_LOAD_TIMEOUT_MILLIS);
+        copyOptions = new RedshiftCopyOptions(configuration);
+        credentialsProvider = configuration.AWS_CREDENTIALS_PROVIDER;
+        connectionPool = RedshiftConnectionPool.acquire(configuration);
+        if (configuration.S3_SHARED_TRANSFER_SERVICE) {
+            transferService = S3TransferService.acquire(configuration);
+            s3Client = transferService.getClient();
+        } else {
+            transferService = null;
+            s3Client = new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER);
+            if (configuration.S3_ENDPOINT != null) {
+                s3Client.setEndpoint(configuration.S3_ENDPOINT);
+            }
+            if (configuration.S3_PATH_STYLE_ACCESS) {
+                s3Client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+            }
+        }
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "redshift-load-" + dataTable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Groups still collecting files are loaded straight away by release()
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Returns the shared coordinator for the configuration's Amazon Redshift URL and data table,
+     * creating it if needed. Each call must be matched by a call to release().
+     *
+     * @param configuration
+     * @return
+     */
+    public static RedshiftLoadCoordinator acquire(KinesisConnectorConfiguration configuration) {
+        String key = configuration.REDSHIFT_URL + "|" + configuration.REDSHIFT_DATA_TABLE;
+        synchronized (COORDINATORS) {
+            RedshiftLoadCoordinator coordinator = COORDINATORS.get(key);
+            if (coordinator == null) {
+                coordinator = new RedshiftLoadCoordinator(key, configuration);
+                COORDINATORS.put(key, coordinator);
+                LOG.info("Created Amazon Redshift load coordinator for table " + coordinator.dataTable
+                        + " loading up to " + coordinator.maxFiles + " files every " + coordinator.windowMillis
+                        + " milliseconds");
+            }
+            coordinator.references++;
+            return coordinator;
+        }
+    }
+
+    /**
+     * Releases a reference obtained from acquire(). If it was the last, loads the groups still
+     * collecting files, waits up to redshiftLoadTimeoutMillis for the loads to finish and shuts the
+     * coordinator down.
+     */
+    public void release() {
+        synchronized (COORDINATORS) {
+            if (--references > 0) {
+                return;
+            }
+            COORDINATORS.remove(key);
+        }
+        List<Group> pending;
+        synchronized (this) {
+            pending = new ArrayList<Group>(current.values());
+            current.clear();
+        }
+        for (final Group group : pending) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    load(group);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(loadTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Amazon Redshift loads for table " + dataTable + " did not finish in " + loadTimeoutMillis
+                        + " milliseconds. Shutting down");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        connectionPool.release();
+        if (transferService != null) {
+            transferService.release();
+        } else {
+            s3Client.shutdown();
+        }
+    }
+
+    /**
+     * Adds Amazon S3 files to the current group for their codec and waits until they have been
+     * copied. If the group has not started loading after redshiftLoadTimeoutMillis, the files are
+     * withdrawn from it and false is returned.
+     *
+     * @param codec
+     *        the codec the files were compressed with, or null if they are not compressed
+     * @param s3Files
+     *        the keys of the files in the Amazon S3 bucket
+     * @return true if the files were copied to Amazon Redshift, false if the COPY failed
+     * @throws IllegalArgumentException
+     *         if Amazon Redshift cannot load files compressed with the codec
+     * @throws InterruptedException
+     */
+    public boolean copy(CompressionCodec codec, List<String> s3Files) throws InterruptedException {
+        final String options = copyOptions.toSql(codec);
+        Batch batch = new Batch(s3Files);
+        final Group group;
+        synchronized (this) {
+            Group open = current.get(options);
+            if (open == null) {
+                open = new Group(options);
+                current.put(options, open);
+                final Group scheduled = open;
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (RedshiftLoadCoordinator.this) {
+                            if (current.get(options) != scheduled) {
+                                // Already loaded because it filled up
+                                return;
+                            }
+                            current.remove(options);
+                        }
+                        load(scheduled);
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            group = open;
+            group.batches.add(batch);
+            group.fileCount += s3Files.size();
+            if (group.fileCount >= maxFiles) {
+                current.remove(options);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        load(group);
+                    }
+                });
+            }
+        }
+        if (!group.done.await(loadTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            synchronized (this) {
+                if (!group.started) {
+                    group.batches.remove(batch);
+                    group.fileCount -= s3Files.size();
+                    LOG.warn("Amazon Redshift load of " + s3Files.size() + " files did not start in "
+                            + loadTimeoutMillis + " milliseconds. Withdrawing them");
+                    return false;
+                }
+            }
+            // The COPY is running and may load the files, so wait for it to commit or fail
+            group.done.await();
+        }
+        return batch.copied;
+    }
+
+    private void load(Group group) {
+        List<Batch> batches;
+        synchronized (this) {
+            if (group.started) {
+                return;
+            }
+            group.started = true;
+            batches = new ArrayList<Batch>(group.batches);
+        }
+        try {
+            if (batches.isEmpty()) {
+                return;
+            }
+            List<String> files = new ArrayList<String>();
+            for (Batch batch : batches) {
+                files.addAll(batch.files);
+            }
+            if (copyFiles(files, group.options)) {
+                for (Batch batch : batches) {
+                    batch.copied = true;
+                }
+            } else if (batches.size() > 1) {
+                LOG.warn("Copying the " + batches.size() + " batches of the failed group one at a time");
+                for (Batch batch : batches) {
+                    batch.copied = copyFiles(batch.files, group.options);
+                }
+            }
+        } finally {
+            group.done.countDown();
+        }
+    }
+
+    /**
+     * Copies the files with one manifest COPY.
+     *
+     * @return true if the COPY committed
+     */
+    private boolean copyFiles(List<String> files, String options) {
+        String manifestFile = MANIFEST_PREFIX + files.get(0) + "-" + files.get(files.size() - 1);
+        try {
+            writeManifestToS3(manifestFile, files);
+            try (PooledRedshiftConnection conn = connectionPool.getConnection()) {
+                try (Statement stmt = conn.getConnection().createStatement()) {
+                    stmt.execute(generateCopyStatement(manifestFile, options));
+                } catch (SQLException e) {
+                    conn.invalidate();
+                    throw e;
+                }
+                logCopiedRecords(conn, files.size(), manifestFile);
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.error("Error copying " + files.size() + " files to Amazon Redshift using manifest s3://" + s3Bucket
+                    + "/" + manifestFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Logs the number of records the last COPY loaded. The COPY has already committed, so a failure
+     * to count them is only logged.
+     */
+    private void logCopiedRecords(PooledRedshiftConnection conn, int fileCount, String manifestFile) {
+        try {
+            LOG.info("Successfully copied " + getNumberOfCopiedRecords(conn) + " records to Amazon Redshift from "
+                    + fileCount + " files using manifest s3://" + s3Bucket + "/" + manifestFile);
+        } catch (SQLException e) {
+            LOG.warn("Copied " + fileCount + " files to Amazon Redshift using manifest s3://" + s3Bucket + "/"
+                    + manifestFile + " but could not count the records", e);
+            conn.invalidate();
+        }
+    }
+
+    private void writeManifestToS3(String manifestFile, List<String> files) {
+        String manifest = RedshiftManifestEmitter.generateManifestFile(s3Bucket, files, true);
+        byte[] bytes = manifest.getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentLength(bytes.length);
+        s3Client.putObject(s3Bucket, manifestFile, new ByteArrayInputStream(bytes), meta);
+    }
+
+    private String generateCopyStatement(String manifestFile, String options) {
+        AWSCredentials credentials = credentialsProvider.getCredentials();
+        StringBuilder exec = new StringBuilder();
+        exec.append("COPY " + dataTable + " ");
+        exec.append("FROM 's3://" + s3Bucket + "/" + manifestFile + "' ");
+        exec.append("CREDENTIALS 'aws_access_key_id=" + credentials.getAWSAccessKeyId());
+        exec.append(";aws_secret_access_key=" + credentials.getAWSSecretKey());
+        if (credentials instanceof AWSSessionCredentials) {
+            exec.append(";token=" + ((AWSSessionCredentials) credentials).getSessionToken());
+        }
+        exec.append("' ");
+        exec.append("DELIMITER '" + dataDelimiter + "'");
+        exec.append(options);
+        exec.append(" MANIFEST");
+        exec.append(";");
+        return exec.toString();
+    }
+
+    private int getNumberOfCopiedRecords(PooledRedshiftConnection conn) throws SQLException {
+        String cmd = "select pg_last_copy_count();";
+        try (ResultSet resultSet = conn.prepareStatement(cmd).executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * The files loaded by one COPY, and the emitters waiting for it.
+     */
+    private static class Group {
+        private final String options;
+        private final List<Batch> batches = new ArrayList<Batch>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int fileCount;
+        // Set when the load takes the batches; guarded by the coordinator
+        private boolean started;
+
+        private Group(String options) {
+            this.options = options;
+        }
+    }
+
+    /**
+     * The files one emitter submitted, and whether they were copied.
+     */
+    private static class Batch {
+        private final List<String> files;
+        private volatile boolean copied;
+
+        private Batch(List<String> files) {
+            this.files = files;
+        }
+    }
+}
@@ -17,17 +17,21 @@ package com.amazonaws.services.kinesis.connectors.redshift;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -56,6 +60,34 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
  * <li>Call Amazon Redshift copy</li>
  * <li>Commit Amazon Redshift Transaction</li>
  * </ol>
+ * If redshiftFileTableStagingDedup is set, steps 3 and 4 are done with set-based SQL in the same transaction instead:
+ * the file names are inserted into a temporary staging table, the files already in the file table are deleted from it
+ * with DELETE ... USING, and the remaining ones are inserted into the file table with INSERT ... SELECT. The work done
+ * by the leader node then no longer depends on the number of files in the manifest.
+ * <p>
+ * If redshiftCommittedFileCache is set, step 3 first consults a CommittedFileCache of the files committed through this
+ * JVM. Files among the ones it recently committed, such as files replayed after a failed emit or checkpoint, are left
+ * out without a lookup, and only the others are looked up in Amazon Redshift. New files are never among them, so in
+ * this mode every emit still sends one lookup; the cache only saves looking up replayed files. That lookup, inside
+ * the transaction, is what lets the serializable isolation of Amazon Redshift abort one of two workers loading the
+ * same file, as when a worker that has lost a shard's lease but not noticed yet races the shard's new owner.
+ * <p>
+ * With redshiftCommittedFileCacheTrusted also set, the cache also keeps a bloom filter, and only files it might
+ * contain (seeded, with redshiftCommittedFileCacheSeed, from the file table when it is first used) are looked up, so
+ * in the steady state no query is needed. This gives up the protection above: a worker that has lost its lease can
+ * load a batch its shard's new owner loads too. Use it only where leases are not taken from live workers. The cache
+ * cannot know about files committed by other workers, so the emitter still checks every file in Amazon Redshift after
+ * it is created for a newly acquired shard and after a failed emit, until a batch contains no file already copied:
+ * only then has it passed any records replayed from the previous owner's last checkpoint.
+ * <p>
+ * If redshiftSpeculativeManifestUpload is set, the manifest listing every file is uploaded to Amazon S3 on another
+ * thread while the connection is borrowed and the files are checked, instead of afterwards. It is used as is if no file
+ * was left out, which is the usual case, and written again otherwise. Setting redshiftLogCopyCount to false saves the
+ * pg_last_copy_count() query after each copy.
+ * <p>
+ * The COPY loads the files with the compression named in s3CompressionCodec, which must be the codec the
+ * S3ManifestEmitter wrote them with, and adds the COMPUPDATE, STATUPDATE and MAXERROR options described in
+ * RedshiftCopyOptions.
  * <p>
  * This class requires the configuration of an Amazon S3 bucket and endpoint, as well as the following Amazon Redshift
  * items:
@@ -67,6 +99,9 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
  * <li>mandatory flag for Amazon Redshift copy</li>
  * <li>the delimiter used for string parsing when inserting entries into Amazon Redshift</li>
  * </ul>
+ * Connections are borrowed from the RedshiftConnectionPool shared by the emitters in the JVM, and the file table
+ * queries are prepared statements with a power of two number of parameters, so each connection prepares only a few
+ * of them however many files a manifest holds.
  * <br>
  * NOTE: Amazon S3 bucket and Amazon Redshift table must be in the same region for Manifest Copy.
  */
@@ -81,10 +116,24 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
     private final String s3Endpoint;
     private final AmazonS3Client s3Client;
     private final boolean copyMandatory;
-    private final Properties loginProps;
-    private final String redshiftURL;
+    private final RedshiftConnectionPool connectionPool;
+    private final boolean stagingDedup;
+    private final String stagingTable;
+    private final CommittedFileCache fileCache;
+    private final boolean seedFileCache;
+    private final boolean trustFileCache;
+    private boolean verifyWithRedshift = true;
+    private final boolean speculativeManifestUpload;
+    private final boolean logCopyCount;
+    private final RedshiftCopyOptions copyOptions;
+    private ExecutorService manifestExecutor;
     private static final String MANIFEST_PREFIX = "manifests/";
 
+    /**
+     * The largest number of file names bound to one file table statement.
+     */
+    private static final int MAX_STATEMENT_PARAMETERS = 512;
+
     public RedshiftManifestEmitter(KinesisConnectorConfiguration configuration) {
         dataTable = configuration.REDSHIFT_DATA_TABLE;
         fileTable = configuration.REDSHIFT_FILE_TABLE;
@@ -98,23 +147,60 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
             s3Client.setEndpoint(s3Endpoint);
         }
         credentialsProvider = configuration.AWS_CREDENTIALS_PROVIDER;
-        loginProps = new Properties();
-        loginProps.setProperty("user", configuration.REDSHIFT_USERNAME);
-        loginProps.setProperty("password", configuration.REDSHIFT_PASSWORD);
-        redshiftURL = configuration.REDSHIFT_URL;
+        connectionPool = RedshiftConnectionPool.acquire(configuration);
+        stagingDedup = configuration.REDSHIFT_FILE_TABLE_STAGING_DEDUP;
+        stagingTable = "staging_" + fileTable.replaceAll("\\W", "_");
+        if (configuration.REDSHIFT_COMMITTED_FILE_CACHE) {
+            fileCache =
+                    CommittedFileCache.forTable(configuration.REDSHIFT_URL,
+                            fileTable,
+                            configuration.REDSHIFT_COMMITTED_FILE_CACHE_EXPECTED_FILES,
+                            configuration.REDSHIFT_COMMITTED_FILE_CACHE_RECENT_FILES,
+                            configuration.REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED);
+        } else {
+            fileCache = null;
+        }
+        seedFileCache = configuration.REDSHIFT_COMMITTED_FILE_CACHE_SEED;
+        trustFileCache = configuration.REDSHIFT_COMMITTED_FILE_CACHE_TRUSTED;
+        speculativeManifestUpload = configuration.REDSHIFT_SPECULATIVE_MANIFEST_UPLOAD;
+        logCopyCount = configuration.REDSHIFT_LOG_COPY_COUNT;
+        copyOptions = new RedshiftCopyOptions(configuration);
     }
 
     @Override
     public List<String> emit(final UnmodifiableBuffer<String> buffer) throws IOException {
         List<String> records = buffer.getRecords();
-        Connection conn = null;
+        PooledRedshiftConnection conn = null;
 
         String manifestFileName = getManifestFile(records);
+        List<String> speculatedRecords = null;
+        Future<String> speculativeUpload = null;
+        if (speculativeManifestUpload) {
+            speculatedRecords = new ArrayList<String>(new TreeSet<>(records));
+            speculativeUpload = uploadManifestAsync(manifestFileName, speculatedRecords);
+        }
         // Copy to Amazon Redshift using manifest file
         try {
-            conn = DriverManager.getConnection(redshiftURL, loginProps);
-            conn.setAutoCommit(false);
-            List<String> deduplicatedRecords = checkForExistingFiles(conn, records);
+            conn = connectionPool.getConnection();
+            boolean useCache = fileCache != null && !verifyWithRedshift;
+            boolean staged = stagingDedup && !useCache;
+            if (staged) {
+                createStagingTable(conn);
+            }
+            conn.getConnection().setAutoCommit(false);
+            if (fileCache != null && trustFileCache && seedFileCache) {
+                fileCache.seed(conn, fileTable, fileKeyColumn);
+            }
+            List<String> deduplicatedRecords;
+            if (useCache) {
+                deduplicatedRecords = checkForExistingFilesWithCache(conn, records);
+            } else {
+                deduplicatedRecords = staged ? stageNewFiles(conn, records) : checkForExistingFiles(conn, records);
+                if (fileCache != null && deduplicatedRecords.size() == new TreeSet<>(records).size()) {
+                    // No replayed files, the cache can be trusted from now on
+                    verifyWithRedshift = false;
+                }
+            }
             if (deduplicatedRecords.isEmpty()) {
                 LOG.info("All the files in this set were already copied to Redshift.");
                 // All of these files were already written
@@ -122,47 +208,94 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
                 return Collections.emptyList();
             }
 
-            if (deduplicatedRecords.size() != records.size()) {
-                manifestFileName = getManifestFile(deduplicatedRecords);
+            // Wait for the speculative upload even if it is not used, so it cannot overwrite a later one
+            boolean speculated = speculativeUpload != null && awaitManifestUpload(speculativeUpload);
+            if (!speculated || !deduplicatedRecords.equals(speculatedRecords)) {
+                if (deduplicatedRecords.size() != records.size()) {
+                    manifestFileName = getManifestFile(deduplicatedRecords);
+                }
+                LOG.info("Writing manifest file " + manifestFileName + " to Amazon S3.");
+                writeManifestToS3(manifestFileName, deduplicatedRecords);
             }
-            LOG.info("Writing manifest file " + manifestFileName + " to Amazon S3.");
-            writeManifestToS3(manifestFileName, deduplicatedRecords);
             LOG.info("Inserting " + deduplicatedRecords.size() + " rows into the files table.");
-            insertRecords(conn, deduplicatedRecords);
+            if (staged) {
+                insertStagedRecords(conn);
+            } else {
+                insertRecords(conn, fileTable, deduplicatedRecords);
+            }
             LOG.info("Initiating Amazon Redshift manifest copy of " + deduplicatedRecords.size() + " files.");
-            redshiftCopy(conn, manifestFileName);
-            conn.commit();
-            LOG.info("Successful Amazon Redshift manifest copy of " + getNumberOfCopiedRecords(conn) + " records from "
-                    + deduplicatedRecords.size() + " files using manifest s3://" + s3Bucket + "/"
-                    + getManifestFile(records));
+            redshiftCopy(conn.getConnection(), manifestFileName);
+            conn.getConnection().commit();
+            if (fileCache != null) {
+                fileCache.addAll(deduplicatedRecords);
+            }
+            if (logCopyCount) {
+                LOG.info("Successful Amazon Redshift manifest copy of " + getNumberOfCopiedRecords(conn)
+                        + " records from " + deduplicatedRecords.size() + " files using manifest s3://" + s3Bucket
+                        + "/" + manifestFileName);
+            } else {
+                LOG.info("Successful Amazon Redshift manifest copy of " + deduplicatedRecords.size()
+                        + " files using manifest s3://" + s3Bucket + "/" + manifestFileName);
+            }
             return Collections.emptyList();
         } catch (Exception e) {
             LOG.error("Error emitting data to Amazon Redshift for manifest file name "
                     + manifestFileName + ". Failing this emit attempt.", e);
             rollbackConnection(conn);
+            if (conn != null) {
+                conn.invalidate();
+            }
+            // The commit may have succeeded before the failure was reported
+            verifyWithRedshift = true;
             return buffer.getRecords();
         } finally {
             closeConnection(conn);
         }
     }
 
-    private void rollbackConnection(Connection conn) {
-        try {
-            if (conn != null && !conn.isClosed()) {
-                conn.rollback();
+    private Future<String> uploadManifestAsync(final String fileName, final List<String> records) {
+        return getManifestExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                LOG.info("Writing manifest file " + fileName + " to Amazon S3 ahead of the file check.");
+                return writeManifestToS3(fileName, records);
             }
-        } catch (Exception e) {
-            LOG.error("Unable to rollback Amazon Redshift transaction.", e);
+        });
+    }
+
+    /**
+     * @return true if the speculative manifest upload succeeded
+     */
+    private boolean awaitManifestUpload(Future<String> upload) throws InterruptedException {
+        try {
+            upload.get();
+            return true;
+        } catch (ExecutionException e) {
+            LOG.warn("Speculative manifest upload failed. Writing the manifest again.", e.getCause());
+            return false;
+        }
+    }
+
+    private synchronized ExecutorService getManifestExecutor() {
+        if (manifestExecutor == null) {
+            manifestExecutor = Executors.newFixedThreadPool(1);
         }
+        return manifestExecutor;
     }
 
-    private void closeConnection(Connection conn) {
+    private void rollbackConnection(PooledRedshiftConnection conn) {
         try {
-            if (conn != null && !conn.isClosed()) {
-                conn.close();
+            if (conn != null && !conn.getConnection().isClosed()) {
+                conn.getConnection().rollback();
             }
         } catch (Exception e) {
-            LOG.error("Unable to close Amazon Redshift connection.", e);
+            LOG.error("Unable to rollback Amazon Redshift transaction.", e);
+        }
+    }
+
+    private void closeConnection(PooledRedshiftConnection conn) {
+        if (conn != null) {
+            conn.close();
         }
     }
 
@@ -181,7 +314,7 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
      * @throws IOException
      */
     private String writeManifestToS3(String fileName, List<String> records) throws IOException {
-        String fileContents = generateManifestFile(records);
+        String fileContents = generateManifestFile(s3Bucket, records, copyMandatory);
         // upload generated manifest file
         PutObjectRequest putObjectRequest =
                 new PutObjectRequest(s3Bucket, fileName, new ByteArrayInputStream(fileContents.getBytes()), null);
@@ -191,57 +324,164 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
 
     /**
      * 
-     * Inserts the records to the fileTable using a SQL String in the format: INSERT INTO fileTable
-     * VALUES ('f1'),('f2'),...;
+     * Inserts the records to the table using prepared statements in the format: INSERT INTO table
+     * VALUES (?),(?),...;
      * 
+     * @param table
      * @param records
      * @throws SQLException
      */
-    private void insertRecords(Connection conn, Collection<String> records) throws SQLException {
-        String toInsert = getCollectionString(records, "(", "),(", ")");
+    private void insertRecords(PooledRedshiftConnection conn, String table, List<String> records) throws SQLException {
+        int i = 0;
+        while (i < records.size()) {
+            // Largest power of two that fits, so only a few statement shapes are ever prepared
+            int size = Integer.highestOneBit(Math.min(records.size() - i, MAX_STATEMENT_PARAMETERS));
+            PreparedStatement insert = conn.prepareStatement(getInsertStatement(table, size));
+            for (int p = 1; p <= size; p++) {
+                insert.setString(p, records.get(i++));
+            }
+            insert.executeUpdate();
+        }
+    }
+
+    private String getInsertStatement(String table, int size) {
         StringBuilder insertSQL = new StringBuilder();
         insertSQL.append("INSERT INTO ");
-        insertSQL.append(fileTable);
+        insertSQL.append(table);
         insertSQL.append(" VALUES ");
-        insertSQL.append(toInsert);
+        appendParameters(insertSQL, size, "(?)", ",");
         insertSQL.append(";");
-        executeStatement(conn, insertSQL.toString());
+        return insertSQL.toString();
     }
 
     /**
-     * Selects the count of files that are already present in Amazon Redshift using a SQL Query in the
-     * format: SELECT COUNT(*) FROM fileTable WHERE fileKeyColumn IN ('f1','f2',...);
+     * Selects the files that are already present in Amazon Redshift using prepared statements in the
+     * format: SELECT fileKeyColumn FROM fileTable WHERE fileKeyColumn IN (?,?,...);
      * 
      * @param records
      * @return Deduplicated list of files
      * @throws SQLException
      */
 
-    private List<String> checkForExistingFiles(Connection conn, List<String> records) throws SQLException {
+    private List<String> checkForExistingFiles(PooledRedshiftConnection conn, List<String> records)
+        throws SQLException {
         SortedSet<String> recordSet = new TreeSet<>(records);
-        String files = getCollectionString(recordSet, "(", ",", ")");
+        List<String> files = new ArrayList<String>(recordSet);
+        for (int i = 0; i < files.size(); i += MAX_STATEMENT_PARAMETERS) {
+            List<String> chunk = files.subList(i, Math.min(files.size(), i + MAX_STATEMENT_PARAMETERS));
+            // Round up to a power of two, padding with the last file name, which does not change the result
+            int size = Math.min(MAX_STATEMENT_PARAMETERS, Integer.highestOneBit(chunk.size() * 2 - 1));
+            PreparedStatement select = conn.prepareStatement(getSelectExistingStatement(size));
+            for (int p = 1; p <= size; p++) {
+                select.setString(p, chunk.get(Math.min(p, chunk.size()) - 1));
+            }
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    String existingFile = resultSet.getString(1);
+                    LOG.info("File " + existingFile + " has already been copied. Leaving it out.");
+                    recordSet.remove(existingFile);
+                }
+            }
+        }
+        return new ArrayList<String>(recordSet);
+    }
+
+    /**
+     * Leaves out the files the cache knows were copied, and looks up the others in Amazon Redshift; if the cache is
+     * trusted, only those it might contain.
+     * 
+     * @param records
+     * @return Deduplicated list of files
+     * @throws SQLException
+     */
+    private List<String> checkForExistingFilesWithCache(PooledRedshiftConnection conn, List<String> records)
+        throws SQLException {
+        SortedSet<String> recordSet = new TreeSet<>(records);
+        List<String> uncertain = new ArrayList<String>();
+        for (Iterator<String> files = recordSet.iterator(); files.hasNext();) {
+            String file = files.next();
+            if (fileCache.containsRecent(file)) {
+                LOG.info("File " + file + " has already been copied. Leaving it out.");
+                files.remove();
+            } else if (!trustFileCache || fileCache.mightContain(file)) {
+                uncertain.add(file);
+            }
+        }
+        if (!uncertain.isEmpty()) {
+            List<String> existing = new ArrayList<String>(uncertain);
+            existing.removeAll(checkForExistingFiles(conn, uncertain));
+            recordSet.removeAll(existing);
+        }
+        return new ArrayList<String>(recordSet);
+    }
+
+    private String getSelectExistingStatement(int size) {
         StringBuilder selectExisting = new StringBuilder();
         selectExisting.append("SELECT " + fileKeyColumn + " FROM ");
         selectExisting.append(fileTable);
         selectExisting.append(" WHERE ");
         selectExisting.append(fileKeyColumn);
-        selectExisting.append(" IN ");
-        selectExisting.append(files);
-        selectExisting.append(";");
-        String query = selectExisting.toString();
-        try (Statement stmt = conn.createStatement(); ResultSet resultSet = stmt.executeQuery(query)) {
+        selectExisting.append(" IN (");
+        appendParameters(selectExisting, size, "?", ",");
+        selectExisting.append(");");
+        return selectExisting.toString();
+    }
+
+    /**
+     * Creates the temporary staging table, shaped like the file table, the first time the connection is used. It is
+     * created outside the emit transaction so that it lasts as long as the session.
+     * 
+     * @throws SQLException
+     */
+    private void createStagingTable(PooledRedshiftConnection conn) throws SQLException {
+        if (conn.addSessionObject(stagingTable)) {
+            executeStatement(conn.getConnection(), "CREATE TEMP TABLE IF NOT EXISTS " + stagingTable + " (LIKE "
+                    + fileTable + ");");
+        }
+    }
+
+    /**
+     * Loads the file names into the staging table and removes the ones already present in the file table, using
+     * statements in the format: DELETE FROM stagingTable USING fileTable WHERE stagingTable.fileKeyColumn =
+     * fileTable.fileKeyColumn;
+     * 
+     * @param records
+     * @return Deduplicated list of files, left in the staging table
+     * @throws SQLException
+     */
+    private List<String> stageNewFiles(PooledRedshiftConnection conn, List<String> records) throws SQLException {
+        conn.prepareStatement("DELETE FROM " + stagingTable + ";").executeUpdate();
+        insertRecords(conn, stagingTable, new ArrayList<String>(new TreeSet<>(records)));
+        int existing =
+                conn.prepareStatement("DELETE FROM " + stagingTable + " USING " + fileTable + " WHERE " + stagingTable
+                        + "." + fileKeyColumn + " = " + fileTable + "." + fileKeyColumn + ";").executeUpdate();
+        if (existing > 0) {
+            LOG.info(existing + " files have already been copied. Leaving them out.");
+        }
+        List<String> deduplicatedRecords = new ArrayList<String>();
+        try (ResultSet resultSet =
+                conn.prepareStatement("SELECT " + fileKeyColumn + " FROM " + stagingTable + " ORDER BY "
+                        + fileKeyColumn + ";").executeQuery()) {
             while (resultSet.next()) {
-                String existingFile = resultSet.getString(1);
-                LOG.info("File " + existingFile + " has already been copied. Leaving it out.");
-                recordSet.remove(existingFile);
+                deduplicatedRecords.add(resultSet.getString(1));
             }
-            return new ArrayList<String>(recordSet);
         }
+        return deduplicatedRecords;
     }
 
-    private int getNumberOfCopiedRecords(Connection conn) throws SQLException {
+    /**
+     * Inserts the files left in the staging table into the file table with: INSERT INTO fileTable SELECT * FROM
+     * stagingTable;
+     * 
+     * @throws SQLException
+     */
+    private void insertStagedRecords(PooledRedshiftConnection conn) throws SQLException {
+        conn.prepareStatement("INSERT INTO " + fileTable + " SELECT * FROM " + stagingTable + ";").executeUpdate();
+    }
+
+    private int getNumberOfCopiedRecords(PooledRedshiftConnection conn) throws SQLException {
         String cmd = "select pg_last_copy_count();";
-        try (Statement stmt = conn.createStatement(); ResultSet resultSet = stmt.executeQuery(cmd)) {
+        try (ResultSet resultSet = conn.prepareStatement(cmd).executeQuery()) {
             resultSet.next();
             int numCopiedRecords = resultSet.getInt(1);
             return numCopiedRecords;
@@ -252,7 +492,7 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
      * Executes a, Amazon Redshift copy from Amazon S3 using a Manifest file with a command in the format: COPY
      * dataTable FROM 's3://s3Bucket/manifestFile' CREDENTIALS
      * 'aws_access_key_id=accessKey;aws_secret_access_key=secretKey' DELIMITER dataDelimiter
-     * MANIFEST;
+     * [options] MANIFEST; where the options are given by RedshiftCopyOptions.
      * 
      * @param Name of manifest file
      * @throws SQLException
@@ -271,8 +511,9 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
             redshiftCopy.append("token=" + ((AWSSessionCredentials) credentials).getSessionToken());
         }
         redshiftCopy.append("' ");
-        redshiftCopy.append("DELIMITER '" + dataDelimiter + "' ");
-        redshiftCopy.append("MANIFEST");
+        redshiftCopy.append("DELIMITER '" + dataDelimiter + "'");
+        redshiftCopy.append(copyOptions.toSql());
+        redshiftCopy.append(" MANIFEST");
         redshiftCopy.append(";");
         executeStatement(conn, redshiftCopy.toString());
     }
@@ -291,31 +532,15 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
     }
 
     /**
-     * Builds a String from the members of a Set of String
-     * 
-     * @param members
-     *        List of String, each member will be surrounded by single quotes
-     * @param prepend
-     *        beginning of String
-     * @param delimiter
-     *        between each member
-     * @param append
-     *        end of String
-     * @return String in format: {prepend}
-     *         '{member1}'{delimiter}'{member2}'{delimiter}...'{lastMember}'{app e n d }
+     * Appends size copies of parameter, separated by delimiter, to s
      */
-    private String getCollectionString(Collection<String> members, String prepend, String delimiter, String append) {
-        StringBuilder s = new StringBuilder();
-        s.append(prepend);
-        for (String m : members) {
-            s.append("'");
-            s.append(m);
-            s.append("'");
-            s.append(delimiter);
+    private static void appendParameters(StringBuilder s, int size, String parameter, String delimiter) {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                s.append(delimiter);
+            }
+            s.append(parameter);
         }
-        s.replace(s.length() - delimiter.length(), s.length(), "");
-        s.append(append);
-        return s.toString();
     }
 
     /**
@@ -343,10 +568,12 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
      * </pre>
      * 
      * 
+     * @param s3Bucket
      * @param files
+     * @param mandatory
      * @return String representation of Amazon S3 manifest file
      */
-    private String generateManifestFile(List<String> files) {
+    static String generateManifestFile(String s3Bucket, List<String> files, boolean mandatory) {
         StringBuilder s = new StringBuilder();
         s.append("{\n");
         s.append("\t\"entries\": [\n");
@@ -358,7 +585,7 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
             s.append(file);
             s.append("\"");
             s.append(",");
-            s.append("\"mandatory\":" + Boolean.toString(copyMandatory));
+            s.append("\"mandatory\":" + Boolean.toString(mandatory));
             s.append("},\n");
         }
         s.replace(s.length() - 2, s.length() - 1, "");
@@ -369,7 +596,13 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
 
     @Override
     public void shutdown() {
+        synchronized (this) {
+            if (manifestExecutor != null) {
+                manifestExecutor.shutdownNow();
+            }
+        }
         s3Client.shutdown();
+        connectionPool.release();
     }
 
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a batch of typed records to a local file in a columnar format such as Parquet or ORC, for
+ * ColumnarS3Emitter to upload. Implementations own the schema, row group sizing, encodings and
+ * column statistics of the files they write. ParquetColumnarFormat writes Parquet; other formats,
+ * such as ORC, plug in by implementing this interface.
+ *
+ * @param <U>
+ */
+public interface ColumnarFormat<U> {
+
+    /**
+     * @return the extension, including the leading dot, added to filenames written in this format
+     */
+    String getFileExtension();
+
+    /**
+     * Writes the records to the given file, replacing anything already in it.
+     *
+     * @param records
+     * @param file
+     * @throws IOException
+     */
+    void write(List<U> records, File file) throws IOException;
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+
+/**
+ * This implementation of IEmitter writes each batch of typed records to a single file in a
+ * columnar format, such as Parquet or ORC, and uploads it to Amazon S3. The file is written by a
+ * ColumnarFormat to a local temporary file, which is deleted after the upload. Filenames come
+ * from the same FilenameStrategy and output prefix mechanism as S3Emitter, with the format's
+ * file extension added, and the Amazon S3 settings (bucket, endpoint, path style access) are read
+ * from the configuration in the same way.
+ * <p>
+ * A batch is uploaded as a whole, so a failure retries every record in it. For example, to write
+ * Parquet files of plain Java objects:
+ *
+ * <pre>
+ * new ColumnarS3Emitter&lt;MyRecord&gt;(configuration, ParquetColumnarFormat.forClass(configuration, MyRecord.class));
+ * </pre>
+ *
+ * @param <U>
+ */
+public class ColumnarS3Emitter<U> implements IEmitter<U> {
+    private static final Log LOG = LogFactory.getLog(ColumnarS3Emitter.class);
+
+    protected final ColumnarFormat<U> format;
+    protected final S3Emitter uploader;
+
+    public ColumnarS3Emitter(KinesisConnectorConfiguration configuration, ColumnarFormat<U> format) {
+        this.format = format;
+        // the format does its own compression
+        this.uploader = new S3Emitter(configuration).withCompressionCodec(null);
+    }
+
+    @Override
+    public List<U> emit(final UnmodifiableBuffer<U> buffer) throws IOException {
+        List<U> records = buffer.getRecords();
+        // filename strategies only look at the sequence numbers of the batch
+        UnmodifiableBuffer<byte[]> batch = new UnmodifiableBuffer<byte[]>(buffer, Collections.<byte[]> emptyList());
+        String s3FileName =
+                ExtensionWrappingFilenameStrategy.withExtension(uploader.getFilename(batch), format.getFileExtension());
+        String s3URI = uploader.getS3URI(s3FileName);
+
+        File file = null;
+        try {
+            file = File.createTempFile("kinesis-columnar-", format.getFileExtension());
+            format.write(records, file);
+            LOG.debug("Starting upload of file " + s3URI + " to Amazon S3 containing " + records.size() + " records.");
+            uploader.uploadFile(file, s3FileName);
+            LOG.info("Successfully emitted " + records.size() + " records to Amazon S3 in " + s3URI);
+            return Collections.emptyList();
+        } catch (Exception e) {
+            LOG.error("Caught exception when uploading file " + s3URI + " to Amazon S3. Failing this emit attempt.", e);
+            return records;
+        } finally {
+            if (file != null && !file.delete()) {
+                LOG.warn("Unable to delete temporary file " + file);
+            }
+        }
+    }
+
+    /**
+     * Allows for a custom file naming strategy. See S3Emitter.withFilenameStrategy().
+     *
+     * @param strategy
+     * @return
+     */
+    public ColumnarS3Emitter<U> withFilenameStrategy(FilenameStrategy strategy) {
+        uploader.withFilenameStrategy(strategy);
+        return this;
+    }
+
+    /**
+     * All filenames will be prefixed with this path. See S3Emitter.withOutputPrefix().
+     *
+     * @param prefix
+     * @return
+     */
+    public ColumnarS3Emitter<U> withOutputPrefix(String prefix) {
+        uploader.withOutputPrefix(prefix);
+        return this;
+    }
+
+    @Override
+    public void fail(List<U> records) {
+        for (U record : records) {
+            LOG.error("Record failed: " + record);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        uploader.shutdown();
+    }
+}
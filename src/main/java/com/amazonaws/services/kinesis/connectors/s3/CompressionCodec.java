@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses the files written by an S3Emitter. See StandardCompressionCodec for the built-in
+ * codecs.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return the extension, including the leading dot, added to filenames written with this codec
+     */
+    String getFileExtension();
+
+    /**
+     * Wraps the given stream so that bytes written to the result are compressed into it. Closing
+     * the returned stream must write any trailing data and close the given stream.
+     *
+     * @param out
+     * @return
+     * @throws IOException
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+/**
+ * Wraps another strategy, adding a file extension such as ".zst" if missing.
+ */
+public class ExtensionWrappingFilenameStrategy implements FilenameStrategy {
+
+    private final FilenameStrategy original;
+    private final String extension;
+
+    public ExtensionWrappingFilenameStrategy(FilenameStrategy original, String extension) {
+        this.original = original;
+        this.extension = extension;
+    }
+
+    @Override
+    public String getFilename(UnmodifiableBuffer<byte[]> buffer) {
+        return withExtension(original.getFilename(buffer), extension);
+    }
+
+    static String withExtension(String filename, String extension) {
+        if (!filename.endsWith(extension)) {
+            filename += extension;
+        }
+        return filename;
+    }
+}
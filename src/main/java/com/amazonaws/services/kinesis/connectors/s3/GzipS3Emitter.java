@@ -2,23 +2,44 @@ package com.amazonaws.services.kinesis.connectors.s3;
 
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.NonClosingOutputStream;
+import com.amazonaws.services.kinesis.connectors.impl.OffHeapByteBuffer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * S3 emitter that emits gzipped content.
+ * <p>
+ * Content is deflated at s3GzipCompressionLevel. With s3GzipThreads greater than one, the batch is
+ * compressed in s3GzipBlockSize blocks on a shared worker pool and written as a multi-member gzip
+ * file (see ParallelGzipOutputStream), which standard gunzip and Redshift COPY GZIP both read.
+ * <p>
+ * The emitter always writes gzip, so its compression codec is GZIP: filenames get the .gz extension
+ * once, and code that reads the codec, such as a COPY through RedshiftCopyOptions, sees GZIP.
+ * Setting s3CompressionCodec or withCompressionCodec() to any other codec is rejected.
  */
 public class GzipS3Emitter extends S3Emitter {
 
     private static final Log LOG = LogFactory.getLog(GzipS3Emitter.class);
 
+    protected final int compressionLevel;
+    protected final int blockSize;
+    protected final int compressionThreads;
+
     public GzipS3Emitter(KinesisConnectorConfiguration configuration) {
         super(configuration);
+        checkCodec(compressionCodec);
+        this.compressionCodec = StandardCompressionCodec.GZIP;
+        this.compressionLevel = configuration.S3_GZIP_COMPRESSION_LEVEL;
+        this.blockSize = configuration.S3_GZIP_BLOCK_SIZE;
+        this.compressionThreads = configuration.S3_GZIP_THREADS;
         this.filenameStrategy = new GzipWrappingFilenameStrategy(this.filenameStrategy);
     }
 
@@ -27,17 +48,43 @@ public class GzipS3Emitter extends S3Emitter {
         try (
                 ByteArrayOutputStream baos = new ByteArrayOutputStream()
         ) {
-            // separate resource block needed for the gzos, it doesn't properly flush until closed:
-            // http://stackoverflow.com/q/3640080/424415
-            try (GZIPOutputStream gzos = new GZIPOutputStream(baos)) {
+            writeRecords(records, baos);
+            return baos.toByteArray();
+        }
+    }
+
+    @Override
+    protected void writeRecords(List<byte[]> records, OutputStream out) throws IOException {
+        // the gzos doesn't properly flush until closed:
+        // http://stackoverflow.com/q/3640080/424415
+        // closing it through the shield writes the trailer and frees its Deflater, but keeps out open
+        if (compressionThreads > 1) {
+            // close() also cancels the blocks still compressing if a write fails
+            try (ParallelGzipOutputStream gzos =
+                    new ParallelGzipOutputStream(new NonClosingOutputStream(out),
+                            compressionLevel,
+                            blockSize,
+                            compressionThreads)) {
+                for (byte[] record : records) {
+                    gzos.write(record);
+                }
+            }
+        } else {
+            try (GZIPOutputStream gzos =
+                    ParallelGzipOutputStream.newGzipOutputStream(new NonClosingOutputStream(out), compressionLevel)) {
                 for (byte[] record : records) {
                     gzos.write(record);
                 }
             }
-            return baos.toByteArray();
         }
     }
 
+    @Override
+    protected OffHeapByteBuffer getDirectUploadRegion(UnmodifiableBuffer<byte[]> buffer) {
+        // the region holds uncompressed bytes
+        return null;
+    }
+
     @Override
     public GzipS3Emitter withFilenameStrategy(FilenameStrategy strategy) {
         // not sure we should always wrap it this
@@ -50,4 +97,21 @@ public class GzipS3Emitter extends S3Emitter {
         super.withOutputPrefix(prefix);
         return this;
     }
+
+    /**
+     * @throws IllegalArgumentException
+     *         if the codec is not null or GZIP, since the emitter always writes gzip
+     */
+    @Override
+    public GzipS3Emitter withCompressionCodec(CompressionCodec codec) {
+        checkCodec(codec);
+        return this;
+    }
+
+    private static void checkCodec(CompressionCodec codec) {
+        if (codec != null && codec != StandardCompressionCodec.GZIP) {
+            throw new IllegalArgumentException("GzipS3Emitter always writes gzip and cannot compress with " + codec
+                    + ". Leave s3CompressionCodec unset or set it to GZIP");
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * An OutputStream that writes an Amazon S3 object in parts. Bytes are collected into a part-sized
+ * buffer; the first time the buffer fills, a multipart upload is started, and every full part is
+ * uploaded on the given executor while writing continues. At most maxPartsInFlight parts are
+ * uploading at once, so memory stays at roughly (maxPartsInFlight + 1) * partSize however large
+ * the object is.
+ * <p>
+ * close() uploads the final part and completes the upload. Objects smaller than one part are
+ * written with a single putObject instead. If anything fails, call abort() so Amazon S3 discards
+ * the parts already uploaded.
+ */
+public class MultipartUploadOutputStream extends OutputStream {
+    private static final Log LOG = LogFactory.getLog(MultipartUploadOutputStream.class);
+
+    /**
+     * Amazon S3 rejects parts (other than the last) smaller than 5MB.
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final AmazonS3 s3client;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final ExecutorService executor;
+    private final Semaphore partsInFlight;
+
+    private final List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+    private byte[] part;
+    private int partLength;
+    private String uploadId;
+    private boolean closed;
+
+    public MultipartUploadOutputStream(AmazonS3 s3client,
+            String bucket,
+            String key,
+            int partSize,
+            ExecutorService executor,
+            int maxPartsInFlight) {
+        this.s3client = s3client;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.executor = executor;
+        this.partsInFlight = new Semaphore(Math.max(1, maxPartsInFlight));
+        this.part = new byte[this.partSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (partLength == partSize) {
+            flushPart();
+        }
+        part[partLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (partLength == partSize) {
+                flushPart();
+            }
+            int n = Math.min(len, partSize - partLength);
+            System.arraycopy(b, off, part, partLength, n);
+            partLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Uploads any remaining bytes and completes the upload.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (uploadId == null) {
+            ObjectMetadata meta = new ObjectMetadata();
+            meta.setContentLength(partLength);
+            s3client.putObject(bucket, key, new ByteArrayInputStream(part, 0, partLength), meta);
+            part = null;
+            return;
+        }
+        if (partLength > 0) {
+            submitPart(true);
+        }
+        part = null;
+        List<PartETag> etags = new ArrayList<PartETag>(parts.size());
+        for (Future<PartETag> future : parts) {
+            etags.add(await(future));
+        }
+        s3client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+        LOG.debug("Completed multipart upload of s3://" + bucket + "/" + key + " in " + etags.size() + " parts");
+    }
+
+    /**
+     * Cancels outstanding part uploads and aborts the multipart upload, if one was started.
+     */
+    public void abort() {
+        closed = true;
+        part = null;
+        for (Future<PartETag> future : parts) {
+            future.cancel(true);
+        }
+        if (uploadId != null) {
+            try {
+                s3client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            } catch (Exception e) {
+                LOG.error("Unable to abort multipart upload " + uploadId + " of s3://" + bucket + "/" + key, e);
+            }
+        }
+    }
+
+    private void flushPart() throws IOException {
+        if (uploadId == null) {
+            uploadId = s3client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+        }
+        submitPart(false);
+        part = new byte[partSize];
+        partLength = 0;
+    }
+
+    private void submitPart(boolean lastPart) throws IOException {
+        // Fail fast rather than uploading the rest of the object after a part has failed
+        for (Future<PartETag> future : parts) {
+            if (future.isDone()) {
+                await(future);
+            }
+        }
+        try {
+            partsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to upload part of s3://" + bucket + "/" + key, e);
+        }
+        final UploadPartRequest request =
+                new UploadPartRequest().withBucketName(bucket)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(parts.size() + 1)
+                        .withPartSize(partLength)
+                        .withInputStream(new ByteArrayInputStream(part, 0, partLength))
+                        .withLastPart(lastPart);
+        parts.add(executor.submit(new Callable<PartETag>() {
+            @Override
+            public PartETag call() {
+                try {
+                    return s3client.uploadPart(request).getPartETag();
+                } finally {
+                    partsInFlight.release();
+                }
+            }
+        }));
+    }
+
+    private PartETag await(Future<PartETag> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for part upload of s3://" + bucket + "/" + key, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Part upload of s3://" + bucket + "/" + key + " failed", e.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
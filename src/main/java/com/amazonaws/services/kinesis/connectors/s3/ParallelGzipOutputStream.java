@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An OutputStream that gzips its input in parallel, in the style of pigz. Input is cut into
+ * fixed-size blocks, each block is compressed into a complete gzip member on a worker pool shared
+ * by every stream in the JVM, and the members are written to the underlying stream in input order.
+ * The result is a multi-member gzip file, which gunzip, GZIPInputStream and Redshift COPY ... GZIP
+ * read as the concatenation of the blocks.
+ * <p>
+ * At most maxBlocksInFlight blocks are queued or compressing at once, so memory stays at roughly
+ * 2 * maxBlocksInFlight * blockSize. finish() writes the remaining members without closing the
+ * underlying stream; close() also closes it.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "parallel-gzip-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+
+    private final Deque<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+    private byte[] block;
+    private int blockLength;
+    private boolean wroteMember;
+    private boolean finished;
+
+    /**
+     * @param out
+     *        the stream the gzip members are written to
+     * @param level
+     *        the deflate level, or -1 for the default level
+     * @param blockSize
+     *        the number of uncompressed bytes per gzip member
+     * @param maxBlocksInFlight
+     *        the number of blocks that may be compressing at once
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int maxBlocksInFlight) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses any buffered input and writes all remaining gzip members without closing the
+     * underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        // Always emit at least one member so empty input is still a valid gzip file
+        if (blockLength > 0 || (!wroteMember && blocks.isEmpty())) {
+            submitBlock();
+        }
+        finished = true;
+        block = null;
+        while (!blocks.isEmpty()) {
+            writeNextMember();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> pending : blocks) {
+                pending.cancel(true);
+            }
+            blocks.clear();
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        while (blocks.size() >= maxBlocksInFlight) {
+            writeNextMember();
+        }
+        final byte[] input = block;
+        final int length = blockLength;
+        blocks.addLast(POOL.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return compress(input, length, level);
+            }
+        }));
+        block = new byte[blockSize];
+        blockLength = 0;
+    }
+
+    private void writeNextMember() throws IOException {
+        Future<byte[]> next = blocks.removeFirst();
+        try {
+            out.write(next.get());
+            wroteMember = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for gzip block", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress gzip block", e.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+
+    /**
+     * Compresses the given bytes into a single, complete gzip member.
+     */
+    static byte[] compress(byte[] input, int length, int level) throws IOException {
+        // Record data usually compresses to well under half its size
+        ByteArrayOutputStream member = new ByteArrayOutputStream(Math.max(64, length / 2));
+        try (GZIPOutputStream gzos = newGzipOutputStream(member, level)) {
+            gzos.write(input, 0, length);
+        }
+        return member.toByteArray();
+    }
+
+    /**
+     * The stream must be closed, not just finished, to release its Deflater's native memory; wrap
+     * out in a NonClosingOutputStream to keep it open.
+     *
+     * @return a GZIPOutputStream that deflates at the given level, or the default level for -1
+     */
+    static GZIPOutputStream newGzipOutputStream(OutputStream out, final int level) throws IOException {
+        return new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.avro.specific.SpecificData;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+
+/**
+ * A ColumnarFormat that writes each batch as one Parquet file, through parquet-avro. Records are
+ * mapped to columns by an Avro schema and data model: generated or generic Avro records with the
+ * schema alone, or plain Java objects with forClass(), which derives the schema by reflection.
+ * <p>
+ * The file is cut into row groups of s3ParquetRowGroupSize bytes and pages of s3ParquetPageSize
+ * bytes, and pages are compressed with s3ParquetCompressionCodec. Each column chunk is dictionary
+ * encoded unless s3ParquetDictionaryEncoding is false; a chunk whose dictionary outgrows the page
+ * size falls back to plain encoding. The footer records the min, max and null count of every
+ * column chunk, which lets Athena, Spark and other readers skip row groups.
+ * <p>
+ * Needs parquet-avro and hadoop-common on the classpath; both are optional dependencies of this
+ * library. SNAPPY also needs snappy-java. Files are written straight to the local file system,
+ * without Hadoop's checksum files.
+ *
+ * @param <U>
+ */
+public class ParquetColumnarFormat<U> implements ColumnarFormat<U> {
+
+    private final Schema schema;
+    private final GenericData model;
+    private final CompressionCodecName compressionCodec;
+    private final int rowGroupSize;
+    private final int pageSize;
+    private final boolean dictionaryEncoding;
+    private final Configuration hadoopConfiguration;
+
+    /**
+     * Writes generated or generic Avro records of the given schema.
+     *
+     * @param configuration
+     * @param schema
+     */
+    public ParquetColumnarFormat(KinesisConnectorConfiguration configuration, Schema schema) {
+        this(configuration, schema, SpecificData.get());
+    }
+
+    /**
+     * Writes records of the given schema, read through the given Avro data model.
+     *
+     * @param configuration
+     * @param schema
+     * @param model
+     */
+    public ParquetColumnarFormat(KinesisConnectorConfiguration configuration, Schema schema, GenericData model) {
+        this.schema = schema;
+        this.model = model;
+        this.compressionCodec =
+                CompressionCodecName.valueOf(configuration.S3_PARQUET_COMPRESSION_CODEC.toUpperCase(Locale.ROOT));
+        this.rowGroupSize = configuration.S3_PARQUET_ROW_GROUP_SIZE;
+        this.pageSize = configuration.S3_PARQUET_PAGE_SIZE;
+        this.dictionaryEncoding = configuration.S3_PARQUET_DICTIONARY_ENCODING;
+        this.hadoopConfiguration = new Configuration();
+        // The raw file system writes no .crc files; uncached so another user's settings do not apply
+        hadoopConfiguration.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+        hadoopConfiguration.setBoolean("fs.file.impl.disable.cache", true);
+    }
+
+    /**
+     * Returns a format for plain Java objects of the given class. The schema has a nullable column
+     * for every field of the class, derived by Avro reflection.
+     *
+     * @param configuration
+     * @param recordClass
+     * @return
+     */
+    public static <U> ParquetColumnarFormat<U> forClass(KinesisConnectorConfiguration configuration,
+            Class<U> recordClass) {
+        ReflectData model = ReflectData.AllowNull.get();
+        return new ParquetColumnarFormat<U>(configuration, model.getSchema(recordClass), model);
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".parquet";
+    }
+
+    @Override
+    public void write(List<U> records, File file) throws IOException {
+        try (ParquetWriter<U> writer =
+                AvroParquetWriter.<U> builder(new Path(file.toURI()))
+                        .withSchema(schema)
+                        .withDataModel(model)
+                        .withConf(hadoopConfiguration)
+                        .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                        .withCompressionCodec(compressionCodec)
+                        .withRowGroupSize(rowGroupSize)
+                        .withPageSize(pageSize)
+                        .withDictionaryPageSize(pageSize)
+                        .withDictionaryEncoding(dictionaryEncoding)
+                        .build()) {
+            for (U record : records) {
+                writer.write(record);
+            }
+        }
+    }
+}
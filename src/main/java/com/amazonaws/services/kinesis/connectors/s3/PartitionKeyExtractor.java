@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+
+/**
+ * Chooses the partition a record is written to by PartitionedS3Emitter.
+ */
+public interface PartitionKeyExtractor {
+
+    /**
+     * Returns the partition path of the record, without leading or trailing slashes. Use Hive-style
+     * key=value segments, for example "dt=2015-06-01/hour=05" or "customer=1234", so query engines
+     * can prune partitions; PartitionedS3Emitter.hivePartition() builds a single segment.
+     *
+     * @param record
+     * @return the partition path
+     * @throws IOException
+     *         if the record cannot be parsed; the record is then failed
+     */
+    String getPartition(byte[] record) throws IOException;
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+/**
+ * An S3Emitter that splits each batch by partition and writes one Amazon S3 object per partition.
+ * The partition of every record comes from a PartitionKeyExtractor and is inserted between the
+ * output prefix and the filename, so a batch written with prefix "logs/" might produce
+ * "logs/dt=2015-06-01/hour=05/&lt;filename&gt;" and "logs/dt=2015-06-01/hour=06/&lt;filename&gt;".
+ * <p>
+ * Partitions are uploaded concurrently, up to s3PartitionUploadConcurrency at once, using the same
+ * upload path as S3Emitter (compression codec and multipart mode included). Only the records of
+ * partitions that failed to upload, and records whose partition could not be extracted, are
+ * returned for retry; a retried batch therefore rewrites just the failed partitions. Direct upload
+ * from an OffHeapByteBuffer does not apply, since the records are regrouped.
+ */
+public class PartitionedS3Emitter extends S3Emitter {
+    private static final Log LOG = LogFactory.getLog(PartitionedS3Emitter.class);
+
+    protected final PartitionKeyExtractor partitionKeyExtractor;
+    protected final int partitionUploadConcurrency;
+    private ExecutorService partitionExecutor;
+
+    public PartitionedS3Emitter(KinesisConnectorConfiguration configuration, PartitionKeyExtractor partitionKeyExtractor) {
+        super(configuration);
+        this.partitionKeyExtractor = partitionKeyExtractor;
+        this.partitionUploadConcurrency = Math.max(1, configuration.S3_PARTITION_UPLOAD_CONCURRENCY);
+    }
+
+    /**
+     * Formats a single Hive-style partition segment, "column=value".
+     *
+     * @param column
+     * @param value
+     * @return
+     */
+    public static String hivePartition(String column, String value) {
+        return column + "=" + value;
+    }
+
+    @Override
+    public List<byte[]> emit(final UnmodifiableBuffer<byte[]> buffer) throws IOException {
+        List<byte[]> unprocessed = new ArrayList<byte[]>();
+        Map<String, List<byte[]>> partitions = new LinkedHashMap<String, List<byte[]>>();
+        for (byte[] record : buffer.getRecords()) {
+            String partition;
+            try {
+                partition = partitionKeyExtractor.getPartition(record);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Unable to extract partition from record. Failing this record.", e);
+                unprocessed.add(record);
+                continue;
+            }
+            List<byte[]> records = partitions.get(partition);
+            if (records == null) {
+                records = new ArrayList<byte[]>();
+                partitions.put(partition, records);
+            }
+            records.add(record);
+        }
+
+        if (partitions.size() == 1) {
+            Map.Entry<String, List<byte[]>> only = partitions.entrySet().iterator().next();
+            if (!emitPartition(buffer, only.getKey(), only.getValue())) {
+                unprocessed.addAll(only.getValue());
+            }
+            return unprocessed;
+        }
+
+        Map<String, Future<Boolean>> uploads = new LinkedHashMap<String, Future<Boolean>>();
+        ExecutorService executor = getPartitionExecutor();
+        for (final Map.Entry<String, List<byte[]>> partition : partitions.entrySet()) {
+            uploads.put(partition.getKey(), executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return emitPartition(buffer, partition.getKey(), partition.getValue());
+                }
+            }));
+        }
+        for (Map.Entry<String, Future<Boolean>> upload : uploads.entrySet()) {
+            boolean succeeded = false;
+            try {
+                succeeded = upload.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted waiting for upload of partition " + upload.getKey(), e);
+            } catch (ExecutionException e) {
+                LOG.error("Upload of partition " + upload.getKey() + " failed", e.getCause());
+            }
+            if (!succeeded) {
+                unprocessed.addAll(partitions.get(upload.getKey()));
+            }
+        }
+        return unprocessed;
+    }
+
+    /**
+     * Uploads the records of one partition.
+     *
+     * @return true if the upload succeeded
+     */
+    protected boolean emitPartition(UnmodifiableBuffer<byte[]> buffer, String partition, List<byte[]> records) {
+        String s3FileName = getFilename(buffer, partition);
+        String s3URI = getS3URI(s3FileName);
+        try {
+            LOG.debug("Starting upload of file " + s3URI + " to Amazon S3 containing " + records.size() + " records.");
+            uploadRecords(records, s3FileName);
+            LOG.info("Successfully emitted " + records.size() + " records to Amazon S3 in " + s3URI);
+            return true;
+        } catch (Exception e) {
+            LOG.error("Caught exception when uploading file " + s3URI + " to Amazon S3. Failing this partition.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the Amazon S3 key for a partition of the batch: the output prefix, the partition path
+     * and the filename chosen by the filename strategy.
+     *
+     * @param buffer
+     * @param partition
+     * @return
+     */
+    public String getFilename(UnmodifiableBuffer<byte[]> buffer, String partition) {
+        String s3FileName = partition + "/" + filenameStrategy.getFilename(buffer);
+        if (outputPrefix != null) {
+            s3FileName = outputPrefix + s3FileName;
+        }
+        if (compressionCodec != null) {
+            s3FileName = ExtensionWrappingFilenameStrategy.withExtension(s3FileName, compressionCodec.getFileExtension());
+        }
+        return s3FileName;
+    }
+
+    private synchronized ExecutorService getPartitionExecutor() {
+        if (partitionExecutor == null) {
+            partitionExecutor = Executors.newFixedThreadPool(partitionUploadConcurrency);
+        }
+        return partitionExecutor;
+    }
+
+    @Override
+    public PartitionedS3Emitter withFilenameStrategy(FilenameStrategy strategy) {
+        super.withFilenameStrategy(strategy);
+        return this;
+    }
+
+    @Override
+    public PartitionedS3Emitter withOutputPrefix(String prefix) {
+        super.withOutputPrefix(prefix);
+        return this;
+    }
+
+    @Override
+    public PartitionedS3Emitter withCompressionCodec(CompressionCodec codec) {
+        super.withCompressionCodec(codec);
+        return this;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (partitionExecutor != null) {
+                partitionExecutor.shutdownNow();
+            }
+        }
+        super.shutdown();
+    }
+}
@@ -16,18 +16,29 @@ package com.amazonaws.services.kinesis.connectors.s3;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.NonClosingOutputStream;
+import com.amazonaws.services.kinesis.connectors.impl.OffHeapByteBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 
 /**
@@ -38,7 +49,27 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
  * dash. This class requires the configuration of an Amazon S3 bucket and endpoint.
  *
  * This implementation isn't great on memory usage, so be warned if you are trying to emit
- * a large amount data per file, you'll need at least 3x the data size memory allocated.
+ * a large amount data per file, you'll need at least 2x the data size memory allocated.
+ * When the pipeline buffers into an OffHeapByteBuffer and direct upload is enabled, the file is
+ * instead uploaded straight from the buffer's off-heap region, which saves the concatenated copy.
+ * The record processor still copies the records onto the heap when it transforms the batch, so
+ * about 1x the data size is needed.
+ *
+ * Setting s3MultipartPartSize streams each file to Amazon S3 as a multipart upload instead: records
+ * are written through writeRecords() into part-sized chunks that are uploaded concurrently (up to
+ * s3MultipartConcurrency at once) while the rest of the batch is written, and the upload is
+ * completed at the end of the emit or aborted if it fails. Memory per emit is then bounded by the
+ * part size and concurrency rather than the file size. s3PathStyleAccess allows pointing
+ * s3Endpoint at a local Amazon S3 stand-in.
+ *
+ * Files can be compressed with a CompressionCodec, set with withCompressionCodec() or by naming a
+ * StandardCompressionCodec in s3CompressionCodec. The codec's file extension is added to every
+ * filename.
+ *
+ * With s3SharedTransferService enabled, the emitter uses the S3TransferService shared by all
+ * emitters in the worker instead of its own client: uploads then share one connection pool and
+ * one multipart part executor, and at most s3MaxConcurrentUploads files upload at once across all
+ * shards.
  */
 public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
     private static final Log LOG = LogFactory.getLog(S3Emitter.class);
@@ -46,16 +77,37 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
     protected final String s3Endpoint;
 
     protected final AmazonS3Client s3client;
+    protected final S3TransferService transferService;
 
     protected String outputPrefix;
     protected FilenameStrategy filenameStrategy;
+    protected boolean directUpload;
+    protected CompressionCodec compressionCodec;
+
+    protected final int multipartPartSize;
+    protected final int multipartConcurrency;
+    private ExecutorService multipartExecutor;
 
     public S3Emitter(KinesisConnectorConfiguration configuration) {
         s3Bucket = configuration.S3_BUCKET;
         s3Endpoint = configuration.S3_ENDPOINT;
-        s3client = new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER);
-        if (s3Endpoint != null) {
-            s3client.setEndpoint(s3Endpoint);
+        if (configuration.S3_SHARED_TRANSFER_SERVICE) {
+            transferService = S3TransferService.acquire(configuration);
+            s3client = transferService.getClient();
+        } else {
+            transferService = null;
+            s3client = new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER);
+            if (s3Endpoint != null) {
+                s3client.setEndpoint(s3Endpoint);
+            }
+            if (configuration.S3_PATH_STYLE_ACCESS) {
+                s3client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+            }
+        }
+        multipartPartSize = configuration.S3_MULTIPART_PART_SIZE;
+        multipartConcurrency = Math.max(1, configuration.S3_MULTIPART_CONCURRENCY);
+        if (configuration.S3_COMPRESSION_CODEC != null) {
+            compressionCodec = StandardCompressionCodec.valueOf(configuration.S3_COMPRESSION_CODEC.toUpperCase(Locale.ROOT));
         }
     }
 
@@ -68,23 +120,30 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
         if (outputPrefix != null) {
             s3FileName = outputPrefix + s3FileName;
         }
+        if (compressionCodec != null) {
+            s3FileName = ExtensionWrappingFilenameStrategy.withExtension(s3FileName, compressionCodec.getFileExtension());
+        }
         return s3FileName;
     }
 
     @Override
     public List<byte[]> emit(final UnmodifiableBuffer<byte[]> buffer) throws IOException {
         List<byte[]> records = buffer.getRecords();
+        OffHeapByteBuffer region = getDirectUploadRegion(buffer);
+        boolean multipart = multipartPartSize > 0;
         byte[] outputBytes = null;
-        try {
-            outputBytes = transformRecordsToBytes(records);
-        } catch (RecordProcessingException e) {
-            LOG.error("Error writing record to output stream. Failing this emit attempt. Record: "
-                    + Arrays.toString(e.record),
-                    e);
-            return records;
-        } catch (IOException e) {
-            LOG.error("Unexpected error transforming records", e);
-            return records;
+        if (region == null && !multipart) {
+            try {
+                outputBytes = transformRecordsToBytes(records);
+            } catch (RecordProcessingException e) {
+                LOG.error("Error writing record to output stream. Failing this emit attempt. Record: "
+                        + Arrays.toString(e.record),
+                        e);
+                return records;
+            } catch (IOException e) {
+                LOG.error("Unexpected error transforming records", e);
+                return records;
+            }
         }
 
         // Get the Amazon S3 filename
@@ -93,9 +152,20 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
         String s3URI = getS3URI(s3FileName);
         try {
             LOG.debug("Starting upload of file " + s3URI + " to Amazon S3 containing " + records.size() + " records.");
-            uploadByteArray(outputBytes, s3FileName);
+            if (multipart) {
+                uploadMultipart(records, region, s3FileName);
+            } else if (region != null) {
+                uploadStream(region.newInputStream(), region.getByteCount(), s3FileName);
+            } else {
+                uploadByteArray(outputBytes, s3FileName);
+            }
             LOG.info("Successfully emitted " + buffer.getRecords().size() + " records to Amazon S3 in " + s3URI);
             return Collections.emptyList();
+        } catch (RecordProcessingException e) {
+            LOG.error("Error writing record to output stream. Failing this emit attempt. Record: "
+                    + Arrays.toString(e.record),
+                    e);
+            return records;
         } catch (Exception e) {
             LOG.error("Caught exception when uploading file " + s3URI + "to Amazon S3. Failing this emit attempt.", e);
             return buffer.getRecords();
@@ -104,20 +174,83 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
 
     /**
      * Responsible for transforming the input records to a byte[] that will be written
-     * to s3.  The default implementation writes the input records as-is.  Subclasses
-     * can override this to compress the records.
+     * to s3.  The default implementation writes the input records as-is, compressed with the
+     * compression codec if there is one.  Subclasses can override this to compress the records.
      *
      * @param records
      * @return
      * @throws IOException
      */
     protected byte[] transformRecordsToBytes(List<byte[]> records) throws IOException {
-        // Write all of the records to a compressed output stream
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (compressionCodec != null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeRecords(records, baos);
+            return baos.toByteArray();
+        }
+        // Concatenate the records into a single exactly-sized array
+        int length = 0;
         for (byte[] record : records) {
-            baos.write(record);
+            length += record.length;
+        }
+        byte[] output = new byte[length];
+        int offset = 0;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, output, offset, record.length);
+            offset += record.length;
+        }
+        return output;
+    }
+
+    /**
+     * Responsible for writing the input records to a stream that will be written to s3, used when
+     * uploading in multipart mode. The default implementation writes the input records as-is,
+     * compressed with the compression codec if there is one. Subclasses that override
+     * transformRecordsToBytes should override this to match. The stream must not be closed.
+     *
+     * @param records
+     * @param out
+     * @throws IOException
+     */
+    protected void writeRecords(List<byte[]> records, OutputStream out) throws IOException {
+        if (compressionCodec == null) {
+            for (byte[] record : records) {
+                out.write(record);
+            }
+            return;
+        }
+        // Closing the codec's stream flushes its trailer; the shield keeps out open
+        try (OutputStream compressed = compressionCodec.compress(new NonClosingOutputStream(out))) {
+            for (byte[] record : records) {
+                compressed.write(record);
+            }
         }
-        return baos.toByteArray();
+    }
+
+    /**
+     * Returns the off-heap region to upload from in place of transformRecordsToBytes, or null to use
+     * the records. The region is only used if direct upload is enabled and the buffer being emitted
+     * still holds exactly this batch, which is the case when the record processor emits
+     * synchronously.
+     *
+     * @param buffer
+     * @return the region holding this batch, or null
+     */
+    protected OffHeapByteBuffer getDirectUploadRegion(UnmodifiableBuffer<byte[]> buffer) {
+        // the region holds uncompressed bytes
+        if (!directUpload || compressionCodec != null) {
+            return null;
+        }
+        IBuffer<?> backing = buffer.getBackingBuffer();
+        if (!(backing instanceof OffHeapByteBuffer)) {
+            return null;
+        }
+        OffHeapByteBuffer region = (OffHeapByteBuffer) backing;
+        if (region.getRecords().size() != buffer.getRecords().size()
+                || !Objects.equals(region.getFirstSequenceNumber(), buffer.getFirstSequenceNumber())
+                || !Objects.equals(region.getLastSequenceNumber(), buffer.getLastSequenceNumber())) {
+            return null;
+        }
+        return region;
     }
 
     /**
@@ -128,10 +261,123 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
      * @throws IOException
      */
     protected void uploadByteArray(byte[] bytes, String s3Key) throws IOException {
-        ByteArrayInputStream object = new ByteArrayInputStream(bytes);
+        uploadStream(new ByteArrayInputStream(bytes), bytes.length, s3Key);
+    }
+
+    /**
+     * Uploads length bytes read from the specified stream to s3.
+     *
+     * @param object
+     * @param length
+     * @param s3Key
+     * @throws IOException
+     */
+    protected void uploadStream(InputStream object, long length, String s3Key) throws IOException {
         ObjectMetadata meta = new ObjectMetadata();
-        meta.setContentLength(bytes.length);
-        s3client.putObject(s3Bucket, s3Key, object, meta);
+        meta.setContentLength(length);
+        beginUpload();
+        try {
+            s3client.putObject(s3Bucket, s3Key, object, meta);
+        } finally {
+            endUpload();
+        }
+    }
+
+    /**
+     * Uploads the records as a single file to s3, through transformRecordsToBytes or, in multipart
+     * mode, writeRecords.
+     *
+     * @param records
+     * @param s3Key
+     * @throws IOException
+     */
+    protected void uploadRecords(List<byte[]> records, String s3Key) throws IOException {
+        if (multipartPartSize > 0) {
+            uploadMultipart(records, null, s3Key);
+        } else {
+            uploadByteArray(transformRecordsToBytes(records), s3Key);
+        }
+    }
+
+    /**
+     * Uploads the specified local file to s3.
+     *
+     * @param file
+     * @param s3Key
+     * @throws IOException
+     */
+    protected void uploadFile(File file, String s3Key) throws IOException {
+        beginUpload();
+        try {
+            s3client.putObject(s3Bucket, s3Key, file);
+        } finally {
+            endUpload();
+        }
+    }
+
+    /**
+     * Streams the records, or the region if there is one, to s3 as a multipart upload. The upload
+     * is aborted if anything fails.
+     *
+     * @param records
+     * @param region
+     * @param s3Key
+     * @throws IOException
+     */
+    protected void uploadMultipart(List<byte[]> records, OffHeapByteBuffer region, String s3Key) throws IOException {
+        beginUpload();
+        try {
+            MultipartUploadOutputStream out =
+                    new MultipartUploadOutputStream(s3client,
+                            s3Bucket,
+                            s3Key,
+                            multipartPartSize,
+                            getMultipartExecutor(),
+                            multipartConcurrency);
+            try {
+                if (region != null) {
+                    copy(region.newInputStream(), out);
+                } else {
+                    writeRecords(records, out);
+                }
+                out.close();
+            } catch (IOException | RuntimeException e) {
+                out.abort();
+                throw e;
+            }
+        } finally {
+            endUpload();
+        }
+    }
+
+    private void beginUpload() throws IOException {
+        if (transferService != null) {
+            transferService.beginUpload();
+        }
+    }
+
+    private void endUpload() {
+        if (transferService != null) {
+            transferService.endUpload();
+        }
+    }
+
+    private synchronized ExecutorService getMultipartExecutor() {
+        if (transferService != null) {
+            return transferService.getPartExecutor();
+        }
+        if (multipartExecutor == null) {
+            multipartExecutor = Executors.newFixedThreadPool(multipartConcurrency);
+        }
+        return multipartExecutor;
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            out.write(chunk, 0, n);
+        }
     }
 
     /**
@@ -162,6 +408,32 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
         return this;
     }
 
+    /**
+     * Compresses every file with the given codec and adds its file extension to the filenames.
+     * Pass null to write uncompressed files.
+     *
+     * @param codec
+     * @return
+     */
+    public S3Emitter withCompressionCodec(CompressionCodec codec) {
+        this.compressionCodec = codec;
+        return this;
+    }
+
+    /**
+     * Uploads batches straight from an OffHeapByteBuffer's region instead of copying the records
+     * into a byte[] first. Only enable this when the pipeline buffers into an OffHeapByteBuffer and
+     * its transformer's fromClass returns each record's bytes unchanged, since the region holds the
+     * buffered (pre-transform) bytes.
+     *
+     * @param directUpload
+     * @return
+     */
+    public S3Emitter withDirectUpload(boolean directUpload) {
+        this.directUpload = directUpload;
+        return this;
+    }
+
     @Override
     public void fail(List<byte[]> records) {
         for (byte[] record : records) {
@@ -171,7 +443,16 @@ public class S3Emitter implements IEmitter<byte[]>, FilenameStrategy {
 
     @Override
     public void shutdown() {
-        s3client.shutdown();
+        synchronized (this) {
+            if (multipartExecutor != null) {
+                multipartExecutor.shutdownNow();
+            }
+        }
+        if (transferService != null) {
+            transferService.release();
+        } else {
+            s3client.shutdown();
+        }
     }
 
 
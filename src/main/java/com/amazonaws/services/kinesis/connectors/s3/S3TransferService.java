@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+
+/**
+ * An Amazon S3 client shared by every S3Emitter in the JVM that uses the same endpoint and
+ * credentials, in place of one client (and connection pool) per shard. Along with the client it
+ * provides:
+ * <ul>
+ * <li>a fair limit of s3MaxConcurrentUploads objects uploading at once across all emitters, so
+ * aggregate egress per host can be tuned and shards take turns in the order they asked;</li>
+ * <li>a shared executor for multipart upload parts.</li>
+ * </ul>
+ * Services are reference counted: acquire() returns the existing service for the configuration or
+ * creates one, and the client and executor are shut down when the last holder calls release().
+ * S3Emitter uses this service when s3SharedTransferService is enabled.
+ */
+public class S3TransferService {
+    private static final Log LOG = LogFactory.getLog(S3TransferService.class);
+
+    private static final Map<Key, S3TransferService> SERVICES = new HashMap<Key, S3TransferService>();
+
+    private final Key key;
+    private final AmazonS3Client s3client;
+    private final Semaphore uploads;
+    private final int maxConcurrentUploads;
+    private final int partThreads;
+    private ExecutorService partExecutor;
+    private int references;
+
+    private S3TransferService(Key key, KinesisConnectorConfiguration configuration) {
+        this.key = key;
+        this.maxConcurrentUploads = Math.max(1, configuration.S3_MAX_CONCURRENT_UPLOADS);
+        this.partThreads = maxConcurrentUploads * Math.max(1, configuration.S3_MULTIPART_CONCURRENCY);
+        // Enough connections for every permitted upload to have all of its parts in flight
+        ClientConfiguration clientConfiguration =
+                new ClientConfiguration().withMaxConnections(Math.max(ClientConfiguration.DEFAULT_MAX_CONNECTIONS,
+                        partThreads));
+        this.s3client = new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER, clientConfiguration);
+        if (configuration.S3_ENDPOINT != null) {
+            s3client.setEndpoint(configuration.S3_ENDPOINT);
+        }
+        if (configuration.S3_PATH_STYLE_ACCESS) {
+            s3client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+        }
+        this.uploads = new Semaphore(maxConcurrentUploads, true);
+    }
+
+    /**
+     * Returns the shared service for the configuration's Amazon S3 endpoint and credentials,
+     * creating it if needed. Each call must be matched by a call to release().
+     *
+     * @param configuration
+     * @return
+     */
+    public static S3TransferService acquire(KinesisConnectorConfiguration configuration) {
+        Key key =
+                new Key(configuration.S3_ENDPOINT,
+                        configuration.S3_PATH_STYLE_ACCESS,
+                        configuration.AWS_CREDENTIALS_PROVIDER);
+        synchronized (SERVICES) {
+            S3TransferService service = SERVICES.get(key);
+            if (service == null) {
+                service = new S3TransferService(key, configuration);
+                SERVICES.put(key, service);
+                LOG.info("Created shared S3 transfer service for " + configuration.S3_ENDPOINT + " allowing "
+                        + service.maxConcurrentUploads + " concurrent uploads");
+            }
+            service.references++;
+            return service;
+        }
+    }
+
+    /**
+     * Releases a reference obtained from acquire(), shutting the service down if it was the last.
+     */
+    public void release() {
+        synchronized (SERVICES) {
+            if (--references > 0) {
+                return;
+            }
+            SERVICES.remove(key);
+        }
+        LOG.info("Shutting down shared S3 transfer service");
+        synchronized (this) {
+            if (partExecutor != null) {
+                partExecutor.shutdownNow();
+            }
+        }
+        s3client.shutdown();
+    }
+
+    public AmazonS3Client getClient() {
+        return s3client;
+    }
+
+    /**
+     * @return the executor multipart upload parts are uploaded on
+     */
+    public synchronized ExecutorService getPartExecutor() {
+        if (partExecutor == null) {
+            partExecutor = Executors.newFixedThreadPool(partThreads);
+        }
+        return partExecutor;
+    }
+
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    /**
+     * Blocks until an upload may start. Must be followed by endUpload() once the upload is over.
+     *
+     * @throws IOException
+     *         if interrupted while waiting
+     */
+    public void beginUpload() throws IOException {
+        try {
+            uploads.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to start an upload", e);
+        }
+    }
+
+    public void endUpload() {
+        uploads.release();
+    }
+
+    /**
+     * Identifies the services that may be shared: same endpoint and addressing style, and the same
+     * credentials provider instance.
+     */
+    private static final class Key {
+        private final String endpoint;
+        private final boolean pathStyleAccess;
+        private final AWSCredentialsProvider credentialsProvider;
+
+        private Key(String endpoint, boolean pathStyleAccess, AWSCredentialsProvider credentialsProvider) {
+            this.endpoint = endpoint;
+            this.pathStyleAccess = pathStyleAccess;
+            this.credentialsProvider = credentialsProvider;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, pathStyleAccess, System.identityHashCode(credentialsProvider));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(endpoint, other.endpoint) && pathStyleAccess == other.pathStyleAccess
+                    && credentialsProvider == other.credentialsProvider;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The built-in compression codecs. GZIP needs only the JDK; the others need their optional
+ * dependency on the classpath: commons-compress for BZIP2, zstd-jni for ZSTD, snappy-java for
+ * SNAPPY and lz4-java for LZ4. SNAPPY and LZ4 write the framed formats, which is what the snappy
+ * and lz4 command line tools and most readers expect.
+ * <p>
+ * Each optional codec creates its stream through its own holder class, so loading this enum and
+ * using GZIP never loads the optional libraries.
+ */
+public enum StandardCompressionCodec implements CompressionCodec {
+
+    GZIP(".gz") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return ParallelGzipOutputStream.newGzipOutputStream(out, -1);
+        }
+    },
+    BZIP2(".bz2") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return BZip2Compression.compress(out);
+        }
+    },
+    SNAPPY(".sz") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return SnappyCompression.compress(out);
+        }
+    },
+    LZ4(".lz4") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return Lz4Compression.compress(out);
+        }
+    },
+    ZSTD(".zst") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return ZstdCompression.compress(out);
+        }
+    };
+
+    private final String fileExtension;
+
+    private StandardCompressionCodec(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return fileExtension;
+    }
+}
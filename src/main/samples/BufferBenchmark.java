@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package samples;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.RandomAccess;
+
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.impl.BasicMemoryBuffer;
+
+/**
+ * Fills and clears a BasicMemoryBuffer the way a record processor does, with and without
+ * bufferPreallocate, and reports the time per record spent consuming records and reading them back.
+ * Records are read by index, as the DynamoDB and Elasticsearch emitters do, except from a LinkedList
+ * past 10000 records, where that would take minutes; it is iterated instead. The first fill is
+ * reported separately: it is the only one that grows the pre-sized list when bufferRecordCountLimit
+ * is above the capacity allocated up front, since later fills reuse the capacity. Pass the record
+ * count limit, and optionally the number of timed flushes. Run with a fixed heap and -verbose:gc to
+ * compare garbage collection as well.
+ */
+public class BufferBenchmark {
+    private static final int DEFAULT_RECORDS_PER_FLUSH = 1000;
+    private static final int DEFAULT_FLUSHES = 2000;
+    private static final int WARMUP_FLUSHES = 200;
+    private static final int RECORD_SIZE = 100;
+    private static final int MAX_LINKED_LIST_INDEXED_READ = 10000;
+    private static final String SEQUENCE_NUMBER = "49540000000000000000000000000000000000000000000000000000";
+
+    // Keeps the reads from being optimized away
+    private static long checksum;
+
+    public static void main(String[] args) {
+        int recordsPerFlush = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_PER_FLUSH;
+        int flushes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FLUSHES;
+        byte[] record = new byte[RECORD_SIZE];
+
+        System.out.println("Buffering " + recordsPerFlush + " records per flush, " + flushes + " flushes");
+        System.out.println(String.format("%-12s %16s %16s %16s", "backing", "first fill ns", "consume ns/rec",
+                "read ns/rec"));
+        for (boolean preallocate : new boolean[] { false, true, false, true }) {
+            BasicMemoryBuffer<byte[]> buffer = new BasicMemoryBuffer<byte[]>(configuration(recordsPerFlush, preallocate));
+            long start = System.nanoTime();
+            fill(buffer, record, recordsPerFlush);
+            long firstFillNanos = System.nanoTime() - start;
+            buffer.clear();
+            for (int i = 0; i < WARMUP_FLUSHES; i++) {
+                fill(buffer, record, recordsPerFlush);
+                read(buffer.getRecords());
+                buffer.clear();
+            }
+            long consumeNanos = 0;
+            long readNanos = 0;
+            for (int i = 0; i < flushes; i++) {
+                start = System.nanoTime();
+                fill(buffer, record, recordsPerFlush);
+                long filled = System.nanoTime();
+                checksum += read(buffer.getRecords());
+                readNanos += System.nanoTime() - filled;
+                consumeNanos += filled - start;
+                buffer.clear();
+            }
+            double records = (double) recordsPerFlush * flushes;
+            System.out.println(String.format("%-12s %16d %16.1f %16.1f", preallocate ? "ArrayList" : "LinkedList",
+                    firstFillNanos, consumeNanos / records, readNanos / records));
+        }
+    }
+
+    private static KinesisConnectorConfiguration configuration(int recordsPerFlush, boolean preallocate) {
+        Properties properties = new Properties();
+        properties.setProperty(KinesisConnectorConfiguration.PROP_BUFFER_RECORD_COUNT_LIMIT,
+                Integer.toString(recordsPerFlush));
+        properties.setProperty(KinesisConnectorConfiguration.PROP_BUFFER_PREALLOCATE, Boolean.toString(preallocate));
+        return new KinesisConnectorConfiguration(properties, new DefaultAWSCredentialsProviderChain());
+    }
+
+    private static void fill(BasicMemoryBuffer<byte[]> buffer, byte[] record, int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.consumeRecord(record, record.length, SEQUENCE_NUMBER);
+        }
+    }
+
+    private static long read(List<byte[]> records) {
+        long total = 0;
+        if (records instanceof RandomAccess || records.size() <= MAX_LINKED_LIST_INDEXED_READ) {
+            for (int i = 0; i < records.size(); i++) {
+                total += records.get(i).length;
+            }
+        } else {
+            for (byte[] record : records) {
+                total += record.length;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package samples.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import com.amazonaws.services.kinesis.connectors.s3.StandardCompressionCodec;
+
+/**
+ * Compresses a sample file with each StandardCompressionCodec and reports throughput and
+ * compression ratio, to help choose s3CompressionCodec for a given kind of data. Pass the file to
+ * compress (one record per line, as the emitters write them) and optionally the number of timed
+ * iterations; defaults to the users.txt sample data. Needs every codec's optional dependency on
+ * the classpath.
+ */
+public class CompressionCodecBenchmark {
+    private static final String DEFAULT_SAMPLE_FILE = "users.txt";
+    private static final int DEFAULT_ITERATIONS = 20;
+    private static final int WARMUP_ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String sampleFile = args.length > 0 ? args[0] : DEFAULT_SAMPLE_FILE;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        byte[] data = Files.readAllBytes(Paths.get(sampleFile));
+
+        System.out.println("Compressing " + data.length + " bytes from " + sampleFile + ", " + iterations
+                + " iterations");
+        System.out.println(String.format("%-8s %12s %12s %8s", "codec", "MB/s", "bytes", "ratio"));
+        for (StandardCompressionCodec codec : StandardCompressionCodec.values()) {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                compress(codec, data);
+            }
+            int compressedLength = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                compressedLength = compress(codec, data);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double megabytesPerSecond = ((double) data.length * iterations) / (1024 * 1024) / seconds;
+            double ratio = (double) data.length / compressedLength;
+            System.out.println(String.format("%-8s %12.1f %12d %8.2f", codec, megabytesPerSecond, compressedLength, ratio));
+        }
+    }
+
+    private static int compress(StandardCompressionCodec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length);
+        try (OutputStream out = codec.compress(baos)) {
+            out.write(data);
+        }
+        return baos.size();
+    }
+}
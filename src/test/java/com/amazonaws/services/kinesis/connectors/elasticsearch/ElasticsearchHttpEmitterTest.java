@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.BasicMemoryBuffer;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs ElasticsearchHttpEmitter against a stub _bulk endpoint that records each request body and
+ * answers with queued responses.
+ */
+public class ElasticsearchHttpEmitterTest {
+    private static final String OK = "{\"errors\":false,\"items\":[]}";
+
+    private HttpServer server;
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final Queue<Response> responses = new LinkedList<Response>();
+    private final List<Integer> deadLetterStatuses = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> deadLetterMessages = Collections.synchronizedList(new ArrayList<String>());
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    private volatile CountDownLatch concurrentRequests;
+    private ElasticsearchHttpEmitter emitter;
+
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/_bulk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                bodies.add(read(in));
+                CountDownLatch latch = concurrentRequests;
+                if (latch != null) {
+                    latch.countDown();
+                    try {
+                        latch.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                Response response;
+                synchronized (responses) {
+                    response = responses.isEmpty() ? new Response(200, OK) : responses.remove();
+                }
+                byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(response.status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        // Handle requests in parallel so concurrent bulk requests can be observed
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        if (emitter != null) {
+            emitter.shutdown();
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testBulkBodyIsGzippedNewlineDelimitedJson() throws IOException {
+        emitter = emitter(true);
+        List<ElasticsearchObject> failed =
+                emitter.emit(buffer(new ElasticsearchObject("index", "type", "1", "{\"a\":1}"),
+                        new ElasticsearchObject("index", "type", "2", "{\"a\":2}".getBytes(StandardCharsets.UTF_8))));
+
+        assertTrue(failed.isEmpty());
+        assertEquals(1, bodies.size());
+        assertEquals("{\"index\":{\"_index\":\"index\",\"_type\":\"type\",\"_id\":\"1\"}}\n{\"a\":1}\n"
+                + "{\"index\":{\"_index\":\"index\",\"_type\":\"type\",\"_id\":\"2\"}}\n{\"a\":2}\n", bodies.get(0));
+    }
+
+    @Test
+    public void testItemFailuresAreHandledByStatus() throws IOException {
+        emitter = emitter(false);
+        respond(200, items(201, 409, 400, 503));
+        ElasticsearchObject retried = new ElasticsearchObject("index", "type", "4", "{}");
+        List<ElasticsearchObject> failed =
+                emitter.emit(buffer(new ElasticsearchObject("index", "type", "1", "{}"),
+                        new ElasticsearchObject("index", "type", "2", "{}"),
+                        new ElasticsearchObject("index", "type", "3", "{}"),
+                        retried));
+
+        // 409 is skipped, 400 is dead-lettered and 503 is returned for retry
+        assertEquals(Arrays.asList(retried), failed);
+        assertEquals(Arrays.asList(400), deadLetterStatuses);
+    }
+
+    @Test
+    public void testErrorObjectsAreDeadLetteredWithTheirReason() throws IOException {
+        emitter = emitter(false);
+        respond(200, "{\"errors\":true,\"items\":[{\"index\":{\"status\":400,\"error\":"
+                + "{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}}}]}");
+        emitter.emit(buffer(new ElasticsearchObject("index", "type", "1", "{}")));
+
+        assertEquals(1, deadLetterMessages.size());
+        assertTrue(deadLetterMessages.get(0).contains("mapper_parsing_exception"));
+        assertTrue(deadLetterMessages.get(0).contains("failed to parse"));
+    }
+
+    @Test
+    public void testBulksAreSentConcurrently() throws IOException {
+        Properties properties = properties(false);
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_BULK_MAX_ACTIONS, "1");
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_BULK_CONCURRENCY, "2");
+        emitter = emitter(properties);
+        // Each request is answered only once both are in flight
+        concurrentRequests = new CountDownLatch(2);
+        long start = System.currentTimeMillis();
+        List<ElasticsearchObject> failed =
+                emitter.emit(buffer(new ElasticsearchObject("index", "type", "1", "{}"),
+                        new ElasticsearchObject("index", "type", "2", "{}")));
+
+        assertTrue(failed.isEmpty());
+        assertEquals(2, bodies.size());
+        assertEquals(0, concurrentRequests.getCount());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testRejectedRecordsAreResent() throws IOException {
+        emitter = emitter(false);
+        respond(200, items(201, 429));
+        respond(200, items(201));
+        List<ElasticsearchObject> failed =
+                emitter.emit(buffer(new ElasticsearchObject("index", "type", "1", "{}"),
+                        new ElasticsearchObject("index", "type", "2", "{}")));
+
+        assertTrue(failed.isEmpty());
+        assertEquals(2, bodies.size());
+        assertEquals("{\"index\":{\"_index\":\"index\",\"_type\":\"type\",\"_id\":\"2\"}}\n{}\n", bodies.get(1));
+    }
+
+    @Test
+    public void testFailedRequestsReturnTheWholeBulk() throws IOException {
+        emitter = emitter(false);
+        respond(503, "unavailable");
+        respond(503, "unavailable");
+        List<ElasticsearchObject> records =
+                Arrays.asList(new ElasticsearchObject("index", "type", "1", "{}"),
+                        new ElasticsearchObject("index", "type", "2", "{}"));
+        List<ElasticsearchObject> failed = emitter.emit(buffer(records.toArray(new ElasticsearchObject[0])));
+
+        assertEquals(records, failed);
+        assertEquals(2, bodies.size());
+    }
+
+    @Test
+    public void testGivenUpRecordsAreDeadLettered() {
+        emitter = emitter(false);
+        emitter.fail(Arrays.asList(new ElasticsearchObject("index", "type", "1", "{}")));
+
+        assertEquals(Arrays.asList(0), deadLetterStatuses);
+    }
+
+    @Test
+    public void testCircuitBreakerMetricsArePublished() throws IOException {
+        final Map<String, Double> metrics = new HashMap<String, Double>();
+        emitter = emitter(false).withMetricsFactory(new IMetricsFactory() {
+            @Override
+            public IMetricsScope createMetrics() {
+                return new IMetricsScope() {
+                    @Override
+                    public void addData(String name, double value, StandardUnit unit) {
+                        metrics.put(name, value);
+                    }
+
+                    @Override
+                    public void addDimension(String name, String value) {
+                    }
+
+                    @Override
+                    public void end() {
+                    }
+                };
+            }
+        });
+        respond(503, "unavailable");
+        respond(503, "unavailable");
+        emitter.emit(buffer(new ElasticsearchObject("index", "type", "1", "{}")));
+
+        assertEquals(0.0, metrics.get("CircuitBreakerOpen"), 0.0);
+        assertEquals(2.0, metrics.get("CircuitBreakerConsecutiveFailures"), 0.0);
+    }
+
+    private ElasticsearchHttpEmitter emitter(boolean gzip) {
+        return emitter(properties(gzip));
+    }
+
+    private ElasticsearchHttpEmitter emitter(Properties properties) {
+        KinesisConnectorConfiguration configuration =
+                new KinesisConnectorConfiguration(properties, new DefaultAWSCredentialsProviderChain());
+        return new ElasticsearchHttpEmitter(configuration).withDeadLetterSink(new DeadLetterSink() {
+            @Override
+            public void deadLetter(ElasticsearchObject record, int status, String message) {
+                deadLetterStatuses.add(status);
+                deadLetterMessages.add(message);
+            }
+        });
+    }
+
+    private KinesisConnectorConfiguration configuration(boolean gzip) {
+        return new KinesisConnectorConfiguration(properties(gzip), new DefaultAWSCredentialsProviderChain());
+    }
+
+    private Properties properties(boolean gzip) {
+        Properties properties = new Properties();
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_ENDPOINT, "localhost");
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_HTTP_PORT,
+                Integer.toString(server.getAddress().getPort()));
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_HTTP_GZIP, Boolean.toString(gzip));
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_BULK_MAX_ATTEMPTS, "2");
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_RETRY_BASE_BACKOFF_MILLIS, "1");
+        properties.setProperty(KinesisConnectorConfiguration.PROP_ELASTICSEARCH_RETRY_MAX_BACKOFF_MILLIS, "10");
+        return properties;
+    }
+
+    private UnmodifiableBuffer<ElasticsearchObject> buffer(ElasticsearchObject... records) {
+        BasicMemoryBuffer<ElasticsearchObject> buffer =
+                new BasicMemoryBuffer<ElasticsearchObject>(configuration(false));
+        for (ElasticsearchObject record : records) {
+            buffer.consumeRecord(record, record.getSourceSize(), "1");
+        }
+        return new UnmodifiableBuffer<ElasticsearchObject>(buffer);
+    }
+
+    private void respond(int status, String body) {
+        synchronized (responses) {
+            responses.add(new Response(status, body));
+        }
+    }
+
+    private static String items(int... statuses) {
+        StringBuilder body = new StringBuilder("{\"errors\":true,\"items\":[");
+        for (int i = 0; i < statuses.length; i++) {
+            body.append(i == 0 ? "" : ",")
+                    .append("{\"index\":{\"status\":")
+                    .append(statuses[i])
+                    .append(",\"error\":\"error ")
+                    .append(statuses[i])
+                    .append("\"}}");
+        }
+        return body.append("]}").toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) != -1;) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}